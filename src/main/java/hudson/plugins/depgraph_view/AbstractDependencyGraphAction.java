@@ -22,9 +22,11 @@
 
 package hudson.plugins.depgraph_view;
 
-import com.google.common.collect.ListMultimap;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.inject.Injector;
-import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractModelObject;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
@@ -34,29 +36,40 @@ import hudson.plugins.depgraph_view.model.display.AbstractGraphStringGenerator;
 import hudson.plugins.depgraph_view.model.display.DotGeneratorFactory;
 import hudson.plugins.depgraph_view.model.display.GeneratorFactory;
 import hudson.plugins.depgraph_view.model.display.JsonGeneratorFactory;
-import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
-import hudson.plugins.depgraph_view.model.graph.GraphCalculator;
-import hudson.plugins.depgraph_view.model.graph.ProjectNode;
-import hudson.plugins.depgraph_view.model.graph.SubprojectCalculator;
+import hudson.plugins.depgraph_view.model.graph.GraphCache;
+import hudson.plugins.depgraph_view.model.graph.GraphSnapshot;
+import hudson.plugins.depgraph_view.model.layout.LayoutCache;
 import hudson.plugins.depgraph_view.model.operations.DeleteEdgeOperation;
 import hudson.plugins.depgraph_view.model.operations.PutEdgeOperation;
-import hudson.util.LogTaskListener;
+import hudson.security.ACL;
 import jenkins.model.Jenkins;
 import jenkins.model.ModelObjectWithContextMenu.ContextMenu;
+import net.sf.json.JSONObject;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
 
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Collection;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,10 +78,27 @@ import java.util.regex.Pattern;
  */
 public abstract class AbstractDependencyGraphAction implements Action {
 	
-    private final Logger LOGGER = Logger.getLogger(Logger.class.getName());
-
     private static final Pattern EDGE_PATTERN = Pattern.compile("/(.*)/(.*[^/])(.*)");
 
+    /**
+     * Makes the ETags of this JVM differ from the ones of a previous start, whose graph generations restarted
+     */
+    private static final String INSTANCE_NONCE = UUID.randomUUID().toString();
+
+    private static final String LEGEND_TAG = "legend";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The graph changes with the jobs, so the clients have to revalidate every time
+     */
+    private static final String GRAPH_CACHE_CONTROL = "private, no-cache";
+
+    /**
+     * The legend only changes with the plugin
+     */
+    private static final String LEGEND_CACHE_CONTROL = "public, max-age=" + TimeUnit.DAYS.toSeconds(7);
+
     /**
      * This method is called via AJAX to obtain the context menu for this model object, but we don't have one...
      */
@@ -98,74 +128,431 @@ public abstract class AbstractDependencyGraphAction implements Action {
     }
 
     /**
-     * graph.{png,gv,...} is mapped to the corresponding output
+     * graph.{png,gv,...} is mapped to the corresponding output,
+     * graph.json?pretty=true yields indented json, legend.{png,svg,...} to the legend.
+     * Every output carries an ETag, a request with a matching If-None-Match is answered with 304
+     * before the graph is calculated. The ETags of the graph are weak, as the same graph may be laid out
+     * or rendered to different bytes, e.g. when the layout of a cluster ran out of its time budget. Text outputs are compressed with gzip if the client accepts it.
+     * Only a limited number of graphs is calculated at the same time, see {@link RequestAdmission}.
      */
     public void doDynamic(StaplerRequest req, StaplerResponse rsp)  throws IOException, ServletException, InterruptedException {
         String path = req.getRestOfPath();
-        SupportedImageType imageType = null;
-        try {
-            imageType = SupportedImageType.valueOf(path.substring(path.lastIndexOf('.')+1).toUpperCase());
-        } catch (Exception e) {
-            imageType = SupportedImageType.PNG;
-        }
-
-        GeneratorFactory generatorFactory = (imageType == SupportedImageType.JSON) ?
-                new JsonGeneratorFactory() : new DotGeneratorFactory();
-        AbstractGraphStringGenerator stringGenerator = null;
-        if (path.startsWith("/graph.")) {
-            Injector injector = Jenkins.lookup(Injector.class);
-            GraphCalculator graphCalculator = injector.getInstance(GraphCalculator.class);
-            DependencyGraph graph =
-                    graphCalculator.generateGraph(GraphCalculator.abstractProjectSetToProjectNodeSet(getProjectsForDepgraph()));
-            ListMultimap<ProjectNode, ProjectNode> projects2Subprojects =
-                    injector.getInstance(SubprojectCalculator.class).generate(graph);
-            stringGenerator = generatorFactory.newGenerator(graph, projects2Subprojects);
-        } else if (path.startsWith("/legend.")) {
-            stringGenerator = generatorFactory.newLegendGenerator();
-        } else {
+        SupportedImageType imageType = imageType(path.substring(path.lastIndexOf('.')+1));
+
+        Injector injector = Jenkins.lookup(Injector.class);
+        if (path.startsWith("/legend.")) {
+            serveLegend(req, rsp, imageType, injector.getInstance(LegendCache.class));
+            return;
+        } else if (!path.startsWith("/graph.")) {
             rsp.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
             return;
         }
-        String graphString = stringGenerator.generate();
+
+        boolean gzip = GzipEncoding.negotiate(req, rsp, imageType);
+        GraphCache graphCache = injector.getInstance(GraphCache.class);
+        Collection<? extends AbstractProject<?, ?>> projects = getProjectsForDepgraph();
+        // the generation is read before the snapshot, so the tag never claims a newer graph than the one sent
+        String etag = etag(req, graphTag(graphCache.getGeneration(), projects), gzip, true);
+        if (isNotModified(req, rsp, etag, GRAPH_CACHE_CONTROL)) {
+            return;
+        }
+
+        RequestAdmission admission = injector.getInstance(RequestAdmission.class);
+        if (!admission.tryAcquire()) {
+            rsp.setHeader("Retry-After", Integer.toString(RequestAdmission.RETRY_AFTER_SECONDS));
+            rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many dependency graphs are being calculated");
+            return;
+        }
+        try {
+            GraphSnapshot snapshot = graphCache.getSnapshot(projects);
+            setCacheHeaders(rsp, etag, GRAPH_CACHE_CONTROL);
+            serveGraph(req, rsp, imageType, gzip, snapshot, injector);
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * @return the type with the given extension, png if there is none
+     */
+    private static SupportedImageType imageType(String extension) {
+        try {
+            return SupportedImageType.valueOf(extension.toUpperCase(Locale.ENGLISH));
+        } catch (Exception e) {
+            return SupportedImageType.PNG;
+        }
+    }
+
+    /**
+     * Writes the graph in the requested type, rendering it only if it is not cached
+     */
+    private void serveGraph(StaplerRequest req, StaplerResponse rsp, SupportedImageType imageType, boolean gzip,
+                            GraphSnapshot snapshot, Injector injector) throws IOException {
+        Supplier<AbstractGraphStringGenerator> stringGenerator =
+                generatorOf(snapshot, imageType, Boolean.parseBoolean(req.getParameter("pretty")), injector);
 
         rsp.setContentType(imageType.contentType);
         if (imageType.requiresProcessing) {
-            runDot(rsp.getOutputStream(), new ByteArrayInputStream(graphString.getBytes(Charset.forName("UTF-8"))), imageType.dotType);
+            byte[] image = getRender(snapshot, imageType, gzip, stringGenerator, injector);
+            if (gzip) {
+                rsp.setHeader("Content-Encoding", "gzip");
+            }
+            rsp.setContentLength(image.length);
+            OutputStream output = rsp.getOutputStream();
+            output.write(image);
+            output.close();
+        } else {
+            Writer writer;
+            if (gzip) {
+                rsp.setContentType(imageType.contentType + ";charset=UTF-8");
+                writer = new BufferedWriter(new OutputStreamWriter(GzipEncoding.compressedOutput(rsp), UTF_8));
+            } else {
+                writer = rsp.getWriter();
+            }
+            stringGenerator.get().generate(writer);
+            writer.close();
+        }
+    }
+
+    /**
+     * Does the work of {@link #serveGraph} outside of a request: renders the graph or generates its text
+     *
+     * @return the graph in the given type and, for images, in the type of their image map
+     */
+    private Map<SupportedImageType, byte[]> renderOutputs(GraphSnapshot snapshot, SupportedImageType imageType,
+                                                          boolean pretty, Injector injector) throws IOException {
+        Supplier<AbstractGraphStringGenerator> stringGenerator = generatorOf(snapshot, imageType, pretty, injector);
+        Map<SupportedImageType, byte[]> outputs = new EnumMap<SupportedImageType, byte[]>(SupportedImageType.class);
+        if (imageType.requiresProcessing) {
+            outputs.put(imageType, getRender(snapshot, imageType, false, stringGenerator, injector));
+            SupportedImageType companion = imageType.getCompanion();
+            if (companion != null) {
+                // rendered in the same run of dot, so it is found in the cache
+                outputs.put(companion, getRender(snapshot, companion, false, stringGenerator, injector));
+            }
         } else {
-            rsp.getWriter().append(graphString).close();
+            outputs.put(imageType, stringGenerator.get().generate().getBytes(UTF_8));
         }
+        return outputs;
     }
 
+    /**
+     * @return the generator of the snapshot in the given type, which is only created if needed
+     */
+    private static Supplier<AbstractGraphStringGenerator> generatorOf(final GraphSnapshot snapshot, SupportedImageType imageType,
+                                                                      boolean pretty, Injector injector) {
+        final GeneratorFactory generatorFactory = (imageType == SupportedImageType.JSON) ?
+                new JsonGeneratorFactory(pretty, injector.getInstance(LayoutCache.class)) :
+                new DotGeneratorFactory();
+        // the generator is only needed if the output is not cached
+        return Suppliers.memoize(new Supplier<AbstractGraphStringGenerator>() {
+            @Override
+            public AbstractGraphStringGenerator get() {
+                return generatorFactory.newGenerator(snapshot.getGraph(), snapshot.getSubprojects());
+            }
+        });
+    }
 
     /**
-     * Execute the dot command with given input and output stream
-     * @param type the parameter for the -T option of the graphviz tools
+     * @return the graph rendered in the given type, from the cache if possible
      */
-    protected void runDot(OutputStream output, InputStream input, String type)
+    private byte[] getRender(GraphSnapshot snapshot, final SupportedImageType imageType, boolean gzip,
+                             final Supplier<AbstractGraphStringGenerator> stringGenerator, Injector injector)
             throws IOException {
-        DescriptorImpl descriptor = Hudson.getInstance().getDescriptorByType(DescriptorImpl.class);
-        String dotPath = descriptor.getDotExeOrDefault();
-        Launcher launcher = Hudson.getInstance().createLauncher(new LogTaskListener(LOGGER, Level.CONFIG));
+        RenderCache renderCache = injector.getInstance(RenderCache.class);
+        String sourceHash = renderCache.getSourceHash(snapshot, stringGenerator);
+        Callable<Map<SupportedImageType, byte[]>> renderer = new Callable<Map<SupportedImageType, byte[]>>() {
+            @Override
+            public Map<SupportedImageType, byte[]> call() throws IOException {
+                // generates the source again after hashing it, see RenderCache#getSourceHash
+                return render(stringGenerator.get(), imageType);
+            }
+        };
+        return gzip ? renderCache.getCompressedRender(sourceHash, imageType, renderer)
+                : renderCache.getRender(sourceHash, imageType, renderer);
+    }
+
+    /**
+     * Starts calculating and rendering graph.{type} in the background, e.g. render?type=png.
+     * Answers with the job, see {@link #writeJob}. Requests for the same graph share a job.
+     * The job waits for its turn in the {@link RequestAdmission} like a request for the graph.
+     */
+    public void doRender(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final SupportedImageType imageType = imageType(Util.fixNull(req.getParameter("type")));
+        final boolean pretty = Boolean.parseBoolean(req.getParameter("pretty"));
+        final Injector injector = Jenkins.lookup(Injector.class);
+        final GraphCache graphCache = injector.getInstance(GraphCache.class);
+        final Collection<? extends AbstractProject<?, ?>> projects = getProjectsForDepgraph();
+        // the background thread has no request to compute the absolute urls from
+        final String rootUrl = Jenkins.getInstance().getRootUrl();
+        final Authentication authentication = Jenkins.getAuthentication();
+
+        String token = Util.getDigestOf(INSTANCE_NONCE + '\n' + graphTag(graphCache.getGeneration(), projects)
+                + '\n' + imageType + '\n' + pretty + '\n' + rootUrl);
+        BackgroundRenders.Job job;
         try {
-            launcher.launch()
-                    .cmds(dotPath,"-T" + type, "-Gcharset=UTF-8", "-q1")
-                    .stdin(input)
-                    .stdout(output)
-                    .start().join();
-        } catch (InterruptedException e) {
-            LOGGER.log(Level.SEVERE, "Interrupted while waiting for dot-file to be created",e);
-        }
-        finally {
-            if (output != null) {
-                output.close();
+            job = injector.getInstance(BackgroundRenders.class).start(token, authentication.getName(), imageType, pretty,
+                    new Callable<Map<SupportedImageType, byte[]>>() {
+                        @Override
+                        public Map<SupportedImageType, byte[]> call() throws IOException, InterruptedException {
+                            RequestAdmission admission = injector.getInstance(RequestAdmission.class);
+                            if (!admission.tryAcquire()) {
+                                throw new IOException("Too many dependency graphs are being calculated");
+                            }
+                            SecurityContext previous = ACL.impersonate(authentication);
+                            try {
+                                GraphSnapshot snapshot = graphCache.getSnapshot(projects, rootUrl);
+                                return renderOutputs(snapshot, imageType, pretty, injector);
+                            } finally {
+                                SecurityContextHolder.setContext(previous);
+                                admission.release();
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            rsp.setHeader("Retry-After", Integer.toString(RequestAdmission.RETRY_AFTER_SECONDS));
+            rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many dependency graphs are being rendered");
+            return;
+        }
+        writeJob(rsp, job);
+    }
+
+    /**
+     * Answers with the job of the given token, e.g. renderStatus?token=..., or 404 if it is unknown
+     */
+    public void doRenderStatus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        BackgroundRenders.Job job = Jenkins.lookup(Injector.class).getInstance(BackgroundRenders.class)
+                .getJob(req.getParameter("token"));
+        if (job == null || !job.getUser().equals(Jenkins.getAuthentication().getName())) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        writeJob(rsp, job);
+    }
+
+    /**
+     * Serves an output of a job which is done, e.g. renderResult?token=...&type=png, or 404 if there is none.
+     * If the output was dropped to save memory, the client is redirected to the graph, which is then
+     * rendered within the request.
+     */
+    public void doRenderResult(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        BackgroundRenders backgroundRenders = Jenkins.lookup(Injector.class).getInstance(BackgroundRenders.class);
+        BackgroundRenders.Job job = backgroundRenders.getJob(req.getParameter("token"));
+        SupportedImageType imageType = imageType(Util.fixNull(req.getParameter("type")));
+        if (job == null || !job.getUser().equals(Jenkins.getAuthentication().getName())
+                || job.getStatus() != BackgroundRenders.Status.DONE
+                || (imageType != job.getImageType() && imageType != job.getImageType().getCompanion())) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        byte[] output = backgroundRenders.getOutput(job, imageType);
+        if (output == null) {
+            rsp.sendRedirect2(graphUrl(job, imageType));
+            return;
+        }
+
+        boolean gzip = GzipEncoding.negotiate(req, rsp, imageType);
+        if (gzip) {
+            output = GzipEncoding.compress(output);
+            rsp.setHeader("Content-Encoding", "gzip");
+        }
+        rsp.setHeader("Cache-Control", GRAPH_CACHE_CONTROL);
+        rsp.setContentType(imageType.requiresProcessing ? imageType.contentType : imageType.contentType + ";charset=UTF-8");
+        rsp.setContentLength(output.length);
+        OutputStream stream = rsp.getOutputStream();
+        stream.write(output);
+        stream.close();
+    }
+
+    /**
+     * Writes the job as json: its token, its status (running, done or failed),
+     * the urls of its outputs once it is done (the result and, for images, the companionResult with the image map)
+     * and the error if it failed
+     */
+    private static void writeJob(StaplerResponse rsp, BackgroundRenders.Job job) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("token", job.getToken());
+        BackgroundRenders.Status status = job.getStatus();
+        json.put("status", status.name().toLowerCase(Locale.ENGLISH));
+        if (status == BackgroundRenders.Status.DONE) {
+            json.put("result", resultUrl(job, job.getImageType()));
+            SupportedImageType companion = job.getImageType().getCompanion();
+            if (companion != null) {
+                json.put("companionResult", resultUrl(job, companion));
+            }
+        } else if (status == BackgroundRenders.Status.FAILED) {
+            json.put("error", job.getError());
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        Writer writer = rsp.getWriter();
+        json.write(writer);
+        writer.close();
+    }
+
+    /**
+     * @return the url of the graph of the given type which the job rendered, relative to the action
+     */
+    static String graphUrl(BackgroundRenders.Job job, SupportedImageType imageType) {
+        return "graph." + imageType.name().toLowerCase(Locale.ENGLISH) + (job.isPretty() ? "?pretty=true" : "");
+    }
+
+    /**
+     * @return the url of the output of the given type of the job, relative to the action
+     */
+    private static String resultUrl(BackgroundRenders.Job job, SupportedImageType imageType) {
+        return "renderResult?token=" + job.getToken() + "&type=" + imageType.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Serves the legend, which is rendered only once per type
+     */
+    private static void serveLegend(StaplerRequest req, StaplerResponse rsp, SupportedImageType imageType,
+                                    LegendCache legendCache) throws IOException {
+        if (imageType == SupportedImageType.JSON) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        boolean gzip = GzipEncoding.negotiate(req, rsp, imageType);
+        String etag = etag(req, LEGEND_TAG, gzip, false);
+        if (isNotModified(req, rsp, etag, LEGEND_CACHE_CONTROL)) {
+            return;
+        }
+        byte[] legend;
+        if (gzip) {
+            legend = legendCache.getCompressedLegend(imageType);
+            rsp.setHeader("Content-Encoding", "gzip");
+        } else {
+            legend = legendCache.getLegend(imageType);
+        }
+        setCacheHeaders(rsp, etag, LEGEND_CACHE_CONTROL);
+        rsp.setContentType(imageType.contentType);
+        rsp.setContentLength(legend.length);
+        OutputStream output = rsp.getOutputStream();
+        output.write(legend);
+        output.close();
+    }
+
+    /**
+     * @param tag the parts the output depends on besides the request
+     * @param gzip whether the output is compressed, which makes it a different entity
+     * @param weak whether equal tags only promise equivalent outputs rather than the same bytes
+     * @return the ETag of the requested output
+     */
+    private static String etag(StaplerRequest req, String tag, boolean gzip, boolean weak) {
+        return (weak ? "W/\"" : "\"") + Util.getDigestOf(INSTANCE_NONCE + '\n' + tag + '\n' + gzip + '\n' + req.getRestOfPath()
+                + '?' + req.getQueryString() + '\n' + Jenkins.getInstance().getRootUrl()) + '"';
+    }
+
+    /**
+     * Answers with 304 if the client already has the requested output
+     *
+     * @return whether the response is complete
+     */
+    private static boolean isNotModified(StaplerRequest req, StaplerResponse rsp, String etag, String cacheControl) {
+        if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+            setCacheHeaders(rsp, etag, cacheControl);
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the ETag and the Cache-Control header, only for the responses which carry the output
+     */
+    private static void setCacheHeaders(StaplerResponse rsp, String etag, String cacheControl) {
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", cacheControl);
+    }
+
+    /**
+     * @return the parts the graph depends on: the cached graph version, the initial projects and the user
+     */
+    private static String graphTag(long generation, Collection<? extends AbstractProject<?, ?>> projects) {
+        SortedSet<String> names = new TreeSet<String>();
+        for (AbstractProject<?, ?> project : projects) {
+            names.add(project.getFullName());
+        }
+        return generation + "\n" + Jenkins.getAuthentication().getName() + "\n" + Joiner.on('\n').join(names);
+    }
+
+    /**
+     * Compares the tags weakly, i.e. ignoring W/, as required for If-None-Match.
+     * Commas within the quotes of a tag do not separate it.
+     *
+     * @param ifNoneMatch the value of the If-None-Match header, a list of (weak) entity tags or *
+     * @param etag the (weak) entity tag of the output
+     */
+    static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        int length = ifNoneMatch.length();
+        int i = 0;
+        while (i < length) {
+            char c = ifNoneMatch.charAt(i);
+            if (c == ',' || c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+            if (c == '*') {
+                return true;
+            }
+            if (ifNoneMatch.startsWith("W/", i)) {
+                i += 2;
+            }
+            if (i < length && ifNoneMatch.charAt(i) == '"') {
+                int end = ifNoneMatch.indexOf('"', i + 1);
+                if (end < 0) {
+                    return false;
+                }
+                if (ifNoneMatch.substring(i, end + 1).equals(opaqueTag)) {
+                    return true;
+                }
+                i = end + 1;
+            } else {
+                // skips a tag without quotes, which matches nothing
+                int comma = ifNoneMatch.indexOf(',', i);
+                if (comma < 0) {
+                    return false;
+                }
+                i = comma + 1;
             }
         }
+        return false;
+    }
+
+    /**
+     * Renders the requested type together with its companion type in a single dot run
+     */
+    private Map<SupportedImageType, byte[]> render(AbstractGraphStringGenerator source, SupportedImageType imageType)
+            throws IOException {
+        SupportedImageType companion = imageType.getCompanion();
+        SupportedImageType[] types = companion == null ?
+                new SupportedImageType[] {imageType} : new SupportedImageType[] {imageType, companion};
+        return runDot(source, types);
+    }
+
+    /**
+     * Execute the dot command once, streaming the generated dot source into its input
+     * and producing an output for each of the given types
+     * @return the outputs by type
+     */
+    protected Map<SupportedImageType, byte[]> runDot(AbstractGraphStringGenerator source, SupportedImageType... types)
+            throws IOException {
+        return Jenkins.lookup(Injector.class).getInstance(GraphvizRenderer.class).render(source, types);
     }
 
     public boolean isGraphvizEnabled() {
         return Hudson.getInstance().getDescriptorByType(DescriptorImpl.class).isGraphvizEnabled();
     }
 
+    public boolean isAsyncRenderingEnabled() {
+        return Hudson.getInstance().getDescriptorByType(DescriptorImpl.class).isAsyncRenderingEnabled();
+    }
+
     public boolean isEditFunctionInJSViewEnabled() {
         return Hudson.getInstance().getDescriptorByType(DescriptorImpl.class).isEditFunctionInJSViewEnabled();
     }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calculates and renders graphs in the background, for views whose graph takes longer than a request may.
+ * A job is known by a token, which the client polls until the job is done. Starting a job with the token of
+ * a known job returns that job, so identical requests share one job. Jobs are forgotten
+ * {@link #KEEP_MINUTES} after they were started.
+ * The outputs of a job are kept as long, so that they are served to the client instead of rendering the graph
+ * again, unless they exceed {@link #MAX_OUTPUT_BYTES} together with the outputs of the other jobs.
+ */
+@Singleton
+public class BackgroundRenders {
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundRenders.class.getName());
+
+    private static final int THREADS = Integer.getInteger(BackgroundRenders.class.getName() + ".threads", 2);
+
+    private static final int MAX_QUEUED = 32;
+
+    static final int KEEP_MINUTES = 10;
+
+    private static final long MAX_OUTPUT_BYTES = 32L * 1024 * 1024;
+
+    private final ExecutorService executor;
+
+    private final Cache<String, Job> jobs;
+
+    // the outputs of the finished jobs by their tokens
+    private final Cache<String, Map<SupportedImageType, byte[]>> outputs;
+
+    public BackgroundRenders() {
+        this(newExecutor(), MAX_OUTPUT_BYTES, Ticker.systemTicker());
+    }
+
+    /**
+     * @param maxOutputBytes the total size of the kept outputs
+     */
+    BackgroundRenders(ExecutorService executor, long maxOutputBytes, Ticker ticker) {
+        this.executor = executor;
+        jobs = CacheBuilder.newBuilder()
+                .expireAfterWrite(KEEP_MINUTES, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .build();
+        // a single segment, so that maxOutputBytes is the limit of a single output as well
+        outputs = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxOutputBytes)
+                .weigher(new Weigher<String, Map<SupportedImageType, byte[]>>() {
+                    @Override
+                    public int weigh(String token, Map<SupportedImageType, byte[]> outputs) {
+                        int bytes = 0;
+                        for (byte[] output : outputs.values()) {
+                            bytes += output.length;
+                        }
+                        return bytes;
+                    }
+                })
+                .expireAfterWrite(KEEP_MINUTES, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .build();
+    }
+
+    private static ExecutorService newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view background render %d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts the task unless there is a job with the same token. A failed job is started again,
+     * as is a job whose outputs were dropped.
+     *
+     * @param user the name of the user who may ask for the job
+     * @param imageType the type the client asked for, the task may yield further types like the image map
+     * @param pretty whether the client asked for indented json
+     * @param task yields the outputs of the job by their types
+     * @throws RejectedExecutionException if too many jobs are waiting
+     */
+    public Job start(final String token, final String user, final SupportedImageType imageType, final boolean pretty,
+                     final Callable<Map<SupportedImageType, byte[]>> task) {
+        Job known = jobs.getIfPresent(token);
+        if (known != null && (known.getStatus() == Status.FAILED
+                || (known.getStatus() == Status.DONE && outputs.getIfPresent(token) == null))) {
+            jobs.asMap().remove(token, known);
+        }
+        try {
+            return jobs.get(token, new Callable<Job>() {
+                @Override
+                public Job call() {
+                    return new Job(token, user, imageType, pretty, executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            try {
+                                outputs.put(token, task.call());
+                                return null;
+                            } catch (Exception e) {
+                                LOGGER.log(Level.WARNING, "Could not render " + imageType + " in the background", e);
+                                throw e;
+                            }
+                        }
+                    }));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the job with the given token, or null if it is unknown or forgotten
+     */
+    public Job getJob(String token) {
+        return token == null ? null : jobs.getIfPresent(token);
+    }
+
+    /**
+     * @return the output of the given type of the job which is done, or null if the job has no such output
+     *         or it was dropped
+     */
+    public byte[] getOutput(Job job, SupportedImageType imageType) {
+        if (job.getStatus() != Status.DONE) {
+            return null;
+        }
+        Map<SupportedImageType, byte[]> jobOutputs = outputs.getIfPresent(job.getToken());
+        return jobOutputs == null ? null : jobOutputs.get(imageType);
+    }
+
+    public enum Status {
+        RUNNING, DONE, FAILED
+    }
+
+    public static final class Job {
+        private final String token;
+        private final String user;
+        private final SupportedImageType imageType;
+        private final boolean pretty;
+        private final Future<?> future;
+
+        Job(String token, String user, SupportedImageType imageType, boolean pretty, Future<?> future) {
+            this.token = token;
+            this.user = user;
+            this.imageType = imageType;
+            this.pretty = pretty;
+            this.future = future;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * @return the type the client asked for
+         */
+        public SupportedImageType getImageType() {
+            return imageType;
+        }
+
+        /**
+         * @return whether the client asked for indented json
+         */
+        public boolean isPretty() {
+            return pretty;
+        }
+
+        public Status getStatus() {
+            if (!future.isDone()) {
+                return Status.RUNNING;
+            }
+            return getError() == null ? Status.DONE : Status.FAILED;
+        }
+
+        /**
+         * @return the reason why the job failed, or null if it did not fail (yet)
+         */
+        public String getError() {
+            if (!future.isDone()) {
+                return null;
+            }
+            try {
+                future.get();
+                return null;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            } catch (CancellationException e) {
+                return "cancelled";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+        }
+    }
+}
@@ -46,12 +46,28 @@ public class DependencyGraphProperty extends AbstractDescribableImpl<DependencyG
     @Extension
     public static class DescriptorImpl extends Descriptor<DependencyGraphProperty> {
 
+        public static final int DEFAULT_GRAPHVIZ_WORKERS = 2;
+
+        public static final int DEFAULT_GRAPHVIZ_TIMEOUT = 60;
+
+        public static final int DEFAULT_GRAPH_REQUESTS = 4;
+
         private String dotExe;
 
         private boolean graphvizEnabled = true;
 
         private boolean editFunctionInJSViewEnabled = false;
 
+        private boolean renderCacheSpillEnabled = false;
+
+        private int graphvizWorkers = DEFAULT_GRAPHVIZ_WORKERS;
+
+        private int graphvizTimeout = DEFAULT_GRAPHVIZ_TIMEOUT;
+
+        private int graphRequests = DEFAULT_GRAPH_REQUESTS;
+
+        private boolean asyncRenderingEnabled = false;
+
         public DescriptorImpl() {
             load();
         }
@@ -62,11 +78,17 @@ public class DependencyGraphProperty extends AbstractDescribableImpl<DependencyG
             if(go != null){
                 dotExe = Util.fixEmptyAndTrim(go.optString("dotExe"));
                 graphvizEnabled = true;
+                renderCacheSpillEnabled = go.optBoolean("renderCacheSpillEnabled");
+                graphvizWorkers = Math.max(1, go.optInt("graphvizWorkers", DEFAULT_GRAPHVIZ_WORKERS));
+                graphvizTimeout = Math.max(1, go.optInt("graphvizTimeout", DEFAULT_GRAPHVIZ_TIMEOUT));
             } else {
                 dotExe = null;
                 graphvizEnabled = false;
+                renderCacheSpillEnabled = false;
             }
             editFunctionInJSViewEnabled  = o.optBoolean("editFunctionInJSViewEnabled");
+            graphRequests = Math.max(1, o.optInt("graphRequests", DEFAULT_GRAPH_REQUESTS));
+            asyncRenderingEnabled = o.optBoolean("asyncRenderingEnabled");
 
             save();
 
@@ -90,6 +112,38 @@ public class DependencyGraphProperty extends AbstractDescribableImpl<DependencyG
             return editFunctionInJSViewEnabled;
         }
 
+        public boolean isRenderCacheSpillEnabled() {
+            return renderCacheSpillEnabled;
+        }
+
+        /**
+         * @return maximum number of dot processes running at the same time
+         */
+        public int getGraphvizWorkers() {
+            return graphvizWorkers;
+        }
+
+        /**
+         * @return seconds after which a dot process gets killed
+         */
+        public int getGraphvizTimeout() {
+            return graphvizTimeout;
+        }
+
+        /**
+         * @return maximum number of graph requests calculating and rendering at the same time
+         */
+        public int getGraphRequests() {
+            return graphRequests;
+        }
+
+        /**
+         * @return whether the pages of the graph wait for it to be rendered in the background
+         */
+        public boolean isAsyncRenderingEnabled() {
+            return asyncRenderingEnabled;
+        }
+
         /**
          * @return configured dot executable or a default
          */
@@ -116,10 +170,47 @@ public class DependencyGraphProperty extends AbstractDescribableImpl<DependencyG
             save();
         }
 
+        public void setRenderCacheSpillEnabled(boolean renderCacheSpillEnabled) {
+            this.renderCacheSpillEnabled = renderCacheSpillEnabled;
+            save();
+        }
+
+        public synchronized void setGraphvizWorkers(int graphvizWorkers) {
+            this.graphvizWorkers = graphvizWorkers;
+            save();
+        }
+
+        public synchronized void setGraphvizTimeout(int graphvizTimeout) {
+            this.graphvizTimeout = graphvizTimeout;
+            save();
+        }
+
+        public synchronized void setGraphRequests(int graphRequests) {
+            this.graphRequests = graphRequests;
+            save();
+        }
+
+        public void setAsyncRenderingEnabled(boolean asyncRenderingEnabled) {
+            this.asyncRenderingEnabled = asyncRenderingEnabled;
+            save();
+        }
+
         public FormValidation doCheckDotExe(@QueryParameter final String value) {
             return FormValidation.validateExecutable(value);
         }
 
+        public FormValidation doCheckGraphvizWorkers(@QueryParameter final String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckGraphvizTimeout(@QueryParameter final String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckGraphRequests(@QueryParameter final String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
     }
 
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.plugins.depgraph_view.DependencyGraphProperty.DescriptorImpl;
+import hudson.plugins.depgraph_view.model.display.AbstractGraphStringGenerator;
+import hudson.util.LogTaskListener;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+
+import javax.inject.Singleton;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the dot executable for a bounded number of renders at the same time.
+ * Requests exceeding the configured number of workers wait in a bounded queue,
+ * and a dot process which does not finish within the configured timeout after its source was written
+ * is killed, freeing its worker for the next request.
+ * <p>
+ * The dot source is generated on the requesting thread (it needs the request to compute
+ * absolute urls) and streamed directly into the input of the dot process.
+ */
+@Singleton
+public class GraphvizRenderer {
+
+    private static final Logger LOGGER = Logger.getLogger(GraphvizRenderer.class.getName());
+
+    private static final int MAX_QUEUED_RENDERS = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ResizableSemaphore workers = new ResizableSemaphore(DescriptorImpl.DEFAULT_GRAPHVIZ_WORKERS);
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view graphviz watchdog").build());
+
+    /**
+     * Runs dot once with the generated source as input, producing an output for each of the given types
+     * @return the outputs by type
+     */
+    public Map<SupportedImageType, byte[]> render(AbstractGraphStringGenerator source, SupportedImageType... types)
+            throws IOException {
+        DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+        workers.resize(descriptor.getGraphvizWorkers());
+        int timeout = descriptor.getGraphvizTimeout();
+        acquireWorker(timeout);
+        try {
+            return runDot(descriptor.getDotExeOrDefault(), timeout, source, types);
+        } finally {
+            workers.release();
+        }
+    }
+
+    private void acquireWorker(int timeout) throws IOException {
+        if (queued.incrementAndGet() > MAX_QUEUED_RENDERS) {
+            queued.decrementAndGet();
+            throw new IOException("Too many graphs waiting to be rendered by graphviz");
+        }
+        try {
+            if (!workers.tryAcquire(timeout, TimeUnit.SECONDS)) {
+                throw new IOException("No graphviz worker became available within " + timeout + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a graphviz worker");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private Map<SupportedImageType, byte[]> runDot(String dotPath, int timeout,
+                                                   AbstractGraphStringGenerator source, SupportedImageType... types)
+            throws IOException {
+        List<String> cmds = Lists.newArrayList(dotPath, "-Gcharset=UTF-8", "-q1");
+        File outputDir = Util.createTempDir();
+        try {
+            for (SupportedImageType type : types) {
+                cmds.add("-T" + type.dotType);
+                cmds.add("-o" + new File(outputDir, "graph." + type.dotType).getPath());
+            }
+            Launcher launcher = Jenkins.getInstance().createLauncher(new LogTaskListener(LOGGER, Level.CONFIG));
+            Proc proc = launcher.launch()
+                    .cmds(cmds)
+                    .writeStdin()
+                    .start();
+            Killer killer = new Killer(proc);
+            ScheduledFuture<?> scheduledKill = null;
+            try {
+                Writer input = new BufferedWriter(new OutputStreamWriter(proc.getStdin(), UTF_8));
+                try {
+                    source.generate(input);
+                } finally {
+                    input.close();
+                }
+                // the timeout is for dot alone, generating its source may take a while for a large graph
+                scheduledKill = WATCHDOG.schedule(killer, timeout, TimeUnit.SECONDS);
+                proc.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for dot-file to be created");
+            } catch (IOException e) {
+                if (!killer.killed) {
+                    throw e;
+                }
+            } finally {
+                if (scheduledKill != null) {
+                    scheduledKill.cancel(false);
+                }
+                killer.run();
+            }
+            if (killer.killed) {
+                throw new IOException("graphviz did not finish within " + timeout + " seconds");
+            }
+            Map<SupportedImageType, byte[]> outputs = Maps.newEnumMap(SupportedImageType.class);
+            for (SupportedImageType type : types) {
+                File output = new File(outputDir, "graph." + type.dotType);
+                if (!output.isFile() || output.length() == 0) {
+                    throw new IOException("dot did not produce any " + type.dotType + " output");
+                }
+                outputs.put(type, FileUtils.readFileToByteArray(output));
+            }
+            return outputs;
+        } finally {
+            Util.deleteRecursive(outputDir);
+        }
+    }
+
+    /**
+     * The kills already scheduled still run, so that no dot process outlives its timeout
+     */
+    @Terminator
+    public static void shutdownWatchdog() {
+        WATCHDOG.shutdown();
+    }
+
+    /**
+     * Kills the dot process if it is still running
+     */
+    private static class Killer implements Runnable {
+        private final Proc proc;
+        private volatile boolean killed = false;
+
+        Killer(Proc proc) {
+            this.proc = proc;
+        }
+
+        @Override
+        public synchronized void run() {
+            try {
+                if (proc.isAlive()) {
+                    killed = true;
+                    proc.kill();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not kill dot process", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Splitter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates and applies the gzip content encoding of the text outputs.
+ * Deflate is not offered, as browsers disagree on whether it is wrapped in zlib.
+ */
+final class GzipEncoding {
+
+    static final String SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private GzipEncoding() {
+    }
+
+    /**
+     * Sets the Vary header for types which may be compressed.
+     * @return whether the output of the given type is sent compressed with gzip
+     */
+    static boolean negotiate(HttpServletRequest req, HttpServletResponse rsp, SupportedImageType imageType) {
+        if (!imageType.isCompressible()) {
+            return false;
+        }
+        rsp.addHeader("Vary", "Accept-Encoding");
+        return acceptsGzip(req.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * An explicit gzip or x-gzip takes precedence over *, a coding with the quality zero is not accepted.
+     *
+     * @param acceptEncoding the value of the Accept-Encoding header, e.g. <code>gzip;q=1.0, identity; q=0.5</code>
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        Boolean any = null;
+        for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            Iterator<String> parts = Splitter.on(';').trimResults().split(coding).iterator();
+            String name = parts.next();
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                // either name is enough, x-gzip is an alias of gzip
+                gzip = isAccepted(parts) || Boolean.TRUE.equals(gzip);
+            } else if (name.equals("*")) {
+                any = isAccepted(parts);
+            }
+        }
+        if (gzip != null) {
+            return gzip;
+        }
+        return Boolean.TRUE.equals(any);
+    }
+
+    /**
+     * @return whether the quality among the parameters is not zero
+     */
+    private static boolean isAccepted(Iterator<String> parameters) {
+        while (parameters.hasNext()) {
+            Iterator<String> parameter = Splitter.on('=').trimResults().limit(2).split(parameters.next()).iterator();
+            if (parameter.next().equalsIgnoreCase("q")) {
+                try {
+                    return parameter.hasNext() && Double.parseDouble(parameter.next()) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the Content-Encoding header and wraps the output stream of the response.
+     * The returned stream has to be closed to finish the compressed output.
+     */
+    static OutputStream compressedOutput(HttpServletResponse rsp) throws IOException {
+        rsp.setHeader("Content-Encoding", "gzip");
+        return new GZIPOutputStream(rsp.getOutputStream(), BUFFER_SIZE);
+    }
+
+    static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream output = new GZIPOutputStream(compressed, BUFFER_SIZE);
+        output.write(data);
+        output.close();
+        return compressed.toByteArray();
+    }
+}
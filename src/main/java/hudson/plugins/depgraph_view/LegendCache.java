@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.plugins.depgraph_view.model.display.LegendDotStringGenerator;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Holds the legend in every supported dot type. The legend never changes, so each type is rendered
+ * only once, on first use, and kept for the lifetime of Jenkins.
+ * A failed render is not kept, the next request tries again.
+ */
+@Singleton
+public class LegendCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GraphvizRenderer renderer;
+
+    private final Cache<SupportedImageType, byte[]> legends = CacheBuilder.newBuilder().build();
+
+    private final Cache<SupportedImageType, byte[]> compressedLegends = CacheBuilder.newBuilder().build();
+
+    @Inject
+    public LegendCache(GraphvizRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * @param type a type of the dot family, i.e. not {@link SupportedImageType#JSON}
+     * @return the legend in the given type
+     */
+    public byte[] getLegend(final SupportedImageType type) throws IOException {
+        try {
+            return legends.get(type, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return type.requiresProcessing ? render(type) : source().getBytes(UTF_8);
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the legend in the given type, compressed with gzip
+     */
+    public byte[] getCompressedLegend(final SupportedImageType type) throws IOException {
+        try {
+            return compressedLegends.get(type, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return GzipEncoding.compress(getLegend(type));
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Renders the type together with its companion type, which is kept as well
+     */
+    private byte[] render(SupportedImageType type) throws IOException {
+        SupportedImageType companion = type.getCompanion();
+        SupportedImageType[] types = companion == null ?
+                new SupportedImageType[] {type} : new SupportedImageType[] {type, companion};
+        Map<SupportedImageType, byte[]> renders = renderer.render(new LegendDotStringGenerator(), types);
+        if (companion != null) {
+            legends.put(companion, renders.get(companion));
+        }
+        return renders.get(type);
+    }
+
+    private static String source() throws IOException {
+        StringWriter writer = new StringWriter();
+        new LegendDotStringGenerator().generate(writer);
+        return writer.toString();
+    }
+}
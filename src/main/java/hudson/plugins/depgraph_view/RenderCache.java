@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.Util;
+import hudson.plugins.depgraph_view.DependencyGraphProperty.DescriptorImpl;
+import hudson.plugins.depgraph_view.model.display.AbstractGraphStringGenerator;
+import hudson.plugins.depgraph_view.model.graph.GraphSnapshot;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import javax.inject.Singleton;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the images rendered by graphviz, keyed by a hash of the dot source and the image type,
+ * so that rendering a graph which did not change does not start the dot executable again.
+ * Renders evicted from memory are optionally spilled to <code>JENKINS_HOME/depgraph-view/renders</code>
+ * by a background thread.
+ */
+@Singleton
+public class RenderCache {
+
+    private static final Logger LOGGER = Logger.getLogger(RenderCache.class.getName());
+
+    private static final long MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    private static final long MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+    private static final int MAX_QUEUED_SPILLS = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long maxDiskBytes;
+
+    private final Executor spillExecutor;
+
+    private final Cache<String, byte[]> renders;
+
+    // the hash of the dot source of a snapshot lives as long as the snapshot itself
+    private final Cache<GraphSnapshot, String> sourceHashes = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    public RenderCache() {
+        this(MAX_MEMORY_BYTES, MAX_DISK_BYTES, newSpillExecutor());
+    }
+
+    /**
+     * @param spillExecutor writes the evicted renders to disk, so that the request which evicted them does not wait
+     */
+    RenderCache(long maxMemoryBytes, long maxDiskBytes, Executor spillExecutor) {
+        this.maxDiskBytes = maxDiskBytes;
+        this.spillExecutor = spillExecutor;
+        // a single segment, Guava divides the weight among the segments and would evict every render
+        // above a fraction of maxMemoryBytes right away
+        renders = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxMemoryBytes)
+                .weigher(new Weigher<String, byte[]>() {
+                    @Override
+                    public int weigh(String key, byte[] render) {
+                        return render.length;
+                    }
+                })
+                .removalListener(new RemovalListener<String, byte[]>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, byte[]> notification) {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            scheduleSpill(notification.getKey(), notification.getValue());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Spilling is best effort, renders which find the queue full are dropped
+     */
+    private static ExecutorService newSpillExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_SPILLS),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view render spill").build(),
+                new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The first render of a snapshot generates its dot source twice, once for the hash and once more
+     * into dot if the render is not cached. Generating is linear in the size of the graph and cheap next to
+     * the layout done by dot, keeping the source for dot instead would hold all of it in memory.
+     *
+     * @return the hash of the dot source of the snapshot, calculated only once per snapshot
+     */
+    public String getSourceHash(GraphSnapshot snapshot, final Supplier<? extends AbstractGraphStringGenerator> generator)
+            throws IOException {
+        try {
+            return sourceHashes.get(snapshot, new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return hash(generator.get());
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Hashes the generated source without keeping it in memory
+     */
+    public static String hash(AbstractGraphStringGenerator generator) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(new NullOutputStream(), digest), UTF_8));
+        generator.generate(writer);
+        writer.close();
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * @param sourceHash hash of the dot source, see {@link #hash(AbstractGraphStringGenerator)}
+     * @param renderer renders the dot source if it is neither in memory nor spilled to disk.
+     *                 It may render further types in the same run, these are cached for the follow-up requests.
+     * @return the rendered image
+     */
+    public byte[] getRender(final String sourceHash, final SupportedImageType imageType,
+                            final Callable<Map<SupportedImageType, byte[]>> renderer) throws IOException {
+        final String key = key(sourceHash, imageType);
+        try {
+            return renders.get(key, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    byte[] spilled = readSpilled(key);
+                    if (spilled != null) {
+                        return spilled;
+                    }
+                    Map<SupportedImageType, byte[]> rendered = renderer.call();
+                    for (Map.Entry<SupportedImageType, byte[]> companion : rendered.entrySet()) {
+                        if (companion.getKey() != imageType) {
+                            renders.put(key(sourceHash, companion.getKey()), companion.getValue());
+                        }
+                    }
+                    return rendered.get(imageType);
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the render compressed with gzip, which is compressed only once and cached alongside the render
+     * @see #getRender(String, SupportedImageType, Callable)
+     */
+    public byte[] getCompressedRender(final String sourceHash, final SupportedImageType imageType,
+                                      final Callable<Map<SupportedImageType, byte[]>> renderer) throws IOException {
+        final String key = key(sourceHash, imageType) + GzipEncoding.SUFFIX;
+        try {
+            return renders.get(key, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    byte[] spilled = readSpilled(key);
+                    if (spilled != null) {
+                        return spilled;
+                    }
+                    return GzipEncoding.compress(getRender(sourceHash, imageType, renderer));
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static String key(String hash, SupportedImageType imageType) {
+        return hash + "." + imageType.dotType;
+    }
+
+    private boolean isSpillEnabled() {
+        return Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).isRenderCacheSpillEnabled();
+    }
+
+    private File getSpillDir() {
+        return new File(Jenkins.getInstance().getRootDir(), "depgraph-view/renders");
+    }
+
+    private byte[] readSpilled(String key) {
+        if (!isSpillEnabled()) {
+            return null;
+        }
+        File file = new File(getSpillDir(), key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] render = FileUtils.readFileToByteArray(file);
+            file.setLastModified(System.currentTimeMillis());
+            return render;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read spilled render " + file, e);
+            return null;
+        }
+    }
+
+    private void scheduleSpill(final String key, final byte[] render) {
+        spillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                spill(key, render);
+            }
+        });
+    }
+
+    private void spill(String key, byte[] render) {
+        if (!isSpillEnabled()) {
+            return;
+        }
+        File dir = getSpillDir();
+        File file = new File(dir, key);
+        File tmp = new File(dir, key + ".tmp");
+        try {
+            FileUtils.writeByteArrayToFile(tmp, render);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not spill render to " + file, e);
+            return;
+        }
+        trimSpillDir(dir);
+    }
+
+    /**
+     * Deletes the least recently used renders until the spill directory fits into its maximum size
+     */
+    private synchronized void trimSpillDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxDiskBytes; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+}
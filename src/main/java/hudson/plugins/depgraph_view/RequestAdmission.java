@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view;
+
+import hudson.plugins.depgraph_view.DependencyGraphProperty.DescriptorImpl;
+import jenkins.model.Jenkins;
+
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of graph requests which calculate and render at the same time.
+ * Further requests wait in a bounded queue for at most {@link #MAX_WAIT_SECONDS},
+ * requests which find the queue full or time out are turned away, so that a burst of page views
+ * cannot occupy all request threads of Jenkins.
+ * Identical requests still share their work through the graph, layout and render caches,
+ * the ones waiting here find the results of the first one cached.
+ */
+@Singleton
+public class RequestAdmission {
+
+    /**
+     * Maximum number of requests waiting for a permit
+     */
+    static final int MAX_QUEUED = Integer.getInteger(RequestAdmission.class.getName() + ".maxQueued", 32);
+
+    static final int MAX_WAIT_SECONDS = Integer.getInteger(RequestAdmission.class.getName() + ".maxWaitSeconds", 30);
+
+    /**
+     * Seconds after which a turned away client should try again
+     */
+    public static final int RETRY_AFTER_SECONDS = Integer.getInteger(RequestAdmission.class.getName() + ".retryAfterSeconds", 10);
+
+    private final ResizableSemaphore permits = new ResizableSemaphore(DescriptorImpl.DEFAULT_GRAPH_REQUESTS);
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final int maxQueued;
+
+    private final long maxWaitMillis;
+
+    public RequestAdmission() {
+        this(MAX_QUEUED, TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS));
+    }
+
+    RequestAdmission(int maxQueued, long maxWaitMillis) {
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Waits for a permit if all are taken and the queue is not full.
+     * A successful call has to be followed by {@link #release()}.
+     *
+     * @return whether the request got a permit
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        permits.resize(Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getGraphRequests());
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return the number of requests waiting for a permit
+     */
+    int getQueued() {
+        return queued.get();
+    }
+}
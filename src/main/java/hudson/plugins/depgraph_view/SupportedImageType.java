@@ -52,4 +52,26 @@ public enum SupportedImageType {
         this(contentType, dotType, true);
     }
 
+    /**
+     * @return the type which is requested together with this type (e.g. the image map of an image),
+     * so that both can be rendered in a single run of dot, or <code>null</code>
+     */
+    public SupportedImageType getCompanion() {
+        switch (this) {
+            case PNG:
+                return MAP;
+            case MAP:
+                return PNG;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return whether the output is text, which is worth compressing
+     */
+    public boolean isCompressible() {
+        return this != PNG;
+    }
+
 }
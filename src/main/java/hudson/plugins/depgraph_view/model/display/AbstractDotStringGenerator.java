@@ -27,6 +27,9 @@ import com.google.common.collect.ListMultimap;
 import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Base class for generating dot representations of the graph.
  */
@@ -42,11 +45,12 @@ public abstract class AbstractDotStringGenerator extends AbstractGraphStringGene
         return "\"" + toEscape + "\"";
     }
 
-    protected String cluster(String name, String contents, String... options) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("subgraph cluster" + name + " {\n");
-        builder.append(contents);
-        builder.append(Joiner.on("\n").join(options) + "}\n");
-        return builder.toString();
+    protected void startCluster(Writer writer, String name) throws IOException {
+        writer.write("subgraph cluster" + name + " {\n");
+    }
+
+    protected void endCluster(Writer writer, String... options) throws IOException {
+        Joiner.on("\n").appendTo(writer, options);
+        writer.write("}\n");
     }
 }
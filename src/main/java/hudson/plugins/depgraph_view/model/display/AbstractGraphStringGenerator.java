@@ -25,45 +25,22 @@ package hudson.plugins.depgraph_view.model.display;
 import com.google.common.base.Function;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import hudson.model.AbstractProject;
 import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.Edge;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
  * Base class for generating String representations of the graph.
  */
 public abstract class AbstractGraphStringGenerator {
-    // Lexicographic order of the dependencies
-    protected static final Comparator<Edge> DEP_COMPARATOR = new Comparator<Edge>() {
-        @Override
-        public int compare(Edge o1, Edge o2) {
-            int down = (NODE_COMPARATOR.compare(o1.target, o2.target));
-            return down != 0 ? down : NODE_COMPARATOR.compare(o1.source, o2.source);
-        }
-    };
-
-    // Compares project nodes by name
-    protected static final Comparator<ProjectNode> NODE_COMPARATOR = new Comparator<ProjectNode>() {
-        @Override
-        public int compare(ProjectNode o1, ProjectNode o2) {
-            return PROJECT_COMPARATOR.compare(o1.getProject(), o2.getProject());
-        }
-    };
-
-    // Compares projects by name
-    protected static final Comparator<AbstractProject<?, ?>> PROJECT_COMPARATOR = new Comparator<AbstractProject<?, ?>>() {
-        @Override
-        public int compare(AbstractProject<?, ?> o1, AbstractProject<?, ?> o2) {
-            return o1.getFullDisplayName().compareTo(o2.getFullDisplayName());
-        }
-    };
-
     protected static final Function<ProjectNode, String> PROJECT_NAME_FUNCTION = new Function<ProjectNode, String>() {
         @Override
         public String apply(ProjectNode from) {
@@ -81,19 +58,93 @@ public abstract class AbstractGraphStringGenerator {
         this.graph = graph;
         this.subJobs = projects2Subprojects;
 
-        /* Sort dependencies (by downstream task first) */
-        edges = Lists.newArrayList(graph.getEdges());
-        Collections.sort(edges, DEP_COMPARATOR);
+        /* Sort dependencies (by downstream task first) on the names cached by the nodes of the graph */
+        Collection<Edge> graphEdges = graph.getEdges();
+        List<SortKey<Edge>> edgeKeys = Lists.newArrayListWithCapacity(graphEdges.size());
+        for (Edge edge : graphEdges) {
+            edgeKeys.add(new SortKey<Edge>(target(edge).getName(), source(edge).getName(), edge));
+        }
+        edges = sortedValues(edgeKeys);
+
+        /* Find all projects without dependencies or copied artifacts (stand-alone projects) in the same pass
+           as the projects having some */
+        List<SortKey<ProjectNode>> standaloneKeys = Lists.newArrayList();
+        List<SortKey<ProjectNode>> connectedKeys = Lists.newArrayList();
+        for (ProjectNode node : graph.getNodes()) {
+            SortKey<ProjectNode> key = new SortKey<ProjectNode>(node.getName(), "", node);
+            if (graph.degree(node) == 0) {
+                standaloneKeys.add(key);
+            } else {
+                connectedKeys.add(key);
+            }
+        }
+        standaloneProjects = sortedValues(standaloneKeys);
+        projectsInDeps = sortedValues(connectedKeys);
+    }
+
+    private static <T> ArrayList<T> sortedValues(List<SortKey<T>> keys) {
+        Collections.sort(keys);
+        ArrayList<T> values = Lists.newArrayListWithCapacity(keys.size());
+        for (SortKey<T> key : keys) {
+            values.add(key.value);
+        }
+        return values;
+    }
+
+    /**
+     * A value with the names it is sorted by, so that they are not looked up for every comparison
+     */
+    private static final class SortKey<T> implements Comparable<SortKey<T>> {
+        private final String primary;
+        private final String secondary;
+        private final T value;
+
+        SortKey(String primary, String secondary, T value) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(SortKey<T> o) {
+            int result = primary.compareTo(o.primary);
+            return result != 0 ? result : secondary.compareTo(o.secondary);
+        }
+    }
+
+    /**
+     * @return the node of the graph for the source of the edge, which caches the names of the project
+     */
+    protected ProjectNode source(Edge edge) {
+        return graphNode(edge.source);
+    }
 
-        /* Find all projects without dependencies or copied artifacts (stand-alone projects) */
-        standaloneProjects = Lists.newArrayList(graph.getIsolatedNodes());
-        Collections.sort(standaloneProjects, NODE_COMPARATOR);
+    /**
+     * @return the node of the graph for the target of the edge, which caches the names of the project
+     */
+    protected ProjectNode target(Edge edge) {
+        return graphNode(edge.target);
+    }
 
-        projectsInDeps = Lists.newArrayList(graph.getNodes());
-        projectsInDeps.removeAll(standaloneProjects);
-        Collections.sort(projectsInDeps, NODE_COMPARATOR);
+    private ProjectNode graphNode(ProjectNode node) {
+        ProjectNode graphNode = graph.getNode(node);
+        return graphNode != null ? graphNode : node;
     }
 
-    public abstract String generate();
+    /**
+     * Writes the representation of the graph to the given writer, without building it in memory first
+     */
+    public abstract void generate(Writer writer) throws IOException;
+
+    public String generate() {
+        StringWriter writer = new StringWriter();
+        try {
+            generate(writer);
+        } catch (IOException e) {
+            // a StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
 
 }
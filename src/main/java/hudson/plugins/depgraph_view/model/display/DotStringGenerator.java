@@ -29,6 +29,8 @@ import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.Edge;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 import static com.google.common.base.Functions.compose;
@@ -50,70 +52,69 @@ public class DotStringGenerator extends AbstractDotStringGenerator {
     }
 
     /**
-     * Generates the graphviz code for the given projects and dependencies
-     * @return graphviz code
+     * Writes the graphviz code for the given projects and dependencies
      */
     @Override
-    public String generate() {
+    public void generate(Writer writer) throws IOException {
         /**** Build the dot source file ****/
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("digraph {\n");
-        builder.append("node [shape=box, style=rounded];\n");
+        writer.write("digraph {\n");
+        writer.write("node [shape=box, style=rounded];\n");
 
         /**** First define all the objects and clusters ****/
 
         // up/downstream linked jobs
-        builder.append(cluster("Main", projectsInDependenciesNodes(), "color=invis;"));
+        startCluster(writer, "Main");
+        projectsInDependenciesNodes(writer);
+        endCluster(writer, "color=invis;");
 
         // Stuff not linked to other stuff
         List<String> standaloneNames = transform(standaloneProjects, compose(ESCAPE, PROJECT_NAME_FUNCTION));
-        builder.append(cluster("Standalone", standaloneProjectNodes(standaloneNames),"color=invis;"));
+        startCluster(writer, "Standalone");
+        standaloneProjectNodes(writer, standaloneNames);
+        endCluster(writer, "color=invis;");
 
 
         /****Now define links between objects ****/
 
         // edges
         for (Edge edge : edges) {
-            builder.append(dependencyToEdgeString(edge));
-            builder.append(";\n");
+            writer.write(dependencyToEdgeString(edge));
+            writer.write(";\n");
         }
 
         if (!standaloneNames.isEmpty()) {
-            builder.append("edge[style=\"invisible\",dir=\"none\"];\n" + Joiner.on(" -> ").join(standaloneNames) + ";\n");
-            builder.append("edge[style=\"invisible\",dir=\"none\"];\n" + standaloneNames.get(standaloneNames.size() - 1) + " -> \"Dependency Graph\"");
+            writer.write("edge[style=\"invisible\",dir=\"none\"];\n");
+            Joiner.on(" -> ").appendTo(writer, standaloneNames);
+            writer.write(";\n");
+            writer.write("edge[style=\"invisible\",dir=\"none\"];\n" + standaloneNames.get(standaloneNames.size() - 1) + " -> \"Dependency Graph\"");
         }
 
 
-        builder.append("}");
-
-        return builder.toString();
+        writer.write("}");
     }
 
-    private String standaloneProjectNodes(List<String> standaloneNames) {
-        StringBuilder builder = new StringBuilder();
+    private void standaloneProjectNodes(Writer writer, List<String> standaloneNames) throws IOException {
         for (ProjectNode proj : standaloneProjects) {
-            builder.append(projectToNodeString(proj, subJobs.get(proj)));
-            builder.append(";\n");
+            writer.write(projectToNodeString(proj, subJobs.get(proj)));
+            writer.write(";\n");
         }
         if (!standaloneNames.isEmpty()) {
-            builder.append("edge[style=\"invisible\",dir=\"none\"];\n" + Joiner.on(" -> ").join(standaloneNames) + ";\n");
+            writer.write("edge[style=\"invisible\",dir=\"none\"];\n");
+            Joiner.on(" -> ").appendTo(writer, standaloneNames);
+            writer.write(";\n");
         }
-        return builder.toString();
     }
 
-    private String projectsInDependenciesNodes() {
-        StringBuilder stringBuilder = new StringBuilder();
+    private void projectsInDependenciesNodes(Writer writer) throws IOException {
         for (ProjectNode proj : projectsInDeps) {
             if (subJobs.containsKey(proj)) {
-                stringBuilder.append(projectToNodeString(proj, subJobs.get(proj)));
+                writer.write(projectToNodeString(proj, subJobs.get(proj)));
             }
             else {
-                stringBuilder.append(projectToNodeString(proj));
+                writer.write(projectToNodeString(proj));
             }
-            stringBuilder.append(";\n");
+            writer.write(";\n");
         }
-        return stringBuilder.toString();
     }
 
     private String projectToNodeString(ProjectNode proj) {
@@ -142,12 +143,12 @@ public class DotStringGenerator extends AbstractDotStringGenerator {
     }
 
     private String getEscapedProjectUrl(ProjectNode proj) {
-        return escapeString(proj.getProject().getAbsoluteUrl());
+        return escapeString(proj.getUrl());
     }
 
     private String dependencyToEdgeString(Edge edge, String... options) {
-        return escapeString(edge.source.getName()) + " -> " +
-                escapeString(edge.target.getName()) + " [ color=" + edge.getColor() + " " + Joiner.on(" ").join(options) +" ] ";
+        return escapeString(source(edge).getName()) + " -> " +
+                escapeString(target(edge).getName()) + " [ color=" + edge.getColor() + " " + Joiner.on(" ").join(options) +" ] ";
     }
 
 }
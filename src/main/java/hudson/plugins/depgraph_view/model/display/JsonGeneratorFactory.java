@@ -25,14 +25,38 @@ package hudson.plugins.depgraph_view.model.display;
 import com.google.common.collect.ListMultimap;
 import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
+import hudson.plugins.depgraph_view.model.layout.LayoutCache;
 
 /**
  * {@link GeneratorFactory} for the json format
  */
 public class JsonGeneratorFactory extends GeneratorFactory {
+    private final boolean prettyPrint;
+    private final LayoutCache layoutCache;
+
+    public JsonGeneratorFactory() {
+        this(false);
+    }
+
+    /**
+     * @param prettyPrint whether the generated json should be indented
+     */
+    public JsonGeneratorFactory(boolean prettyPrint) {
+        this(prettyPrint, null);
+    }
+
+    /**
+     * @param prettyPrint whether the generated json should be indented
+     * @param layoutCache reused layouts of clusters, may be null
+     */
+    public JsonGeneratorFactory(boolean prettyPrint, LayoutCache layoutCache) {
+        this.prettyPrint = prettyPrint;
+        this.layoutCache = layoutCache;
+    }
+
     @Override
     public AbstractGraphStringGenerator newGenerator(DependencyGraph graph, ListMultimap<ProjectNode, ProjectNode> subprojects) {
-        return new JsonStringGenerator(graph, subprojects);
+        return new JsonStringGenerator(graph, subprojects, prettyPrint, layoutCache);
     }
 
     @Override
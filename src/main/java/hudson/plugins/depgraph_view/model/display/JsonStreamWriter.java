@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.display;
+
+import net.sf.json.util.JSONUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes json incrementally to a {@link Writer}, so that large documents never have to be held in memory.
+ * The output is compact unless pretty printing is requested.
+ */
+public class JsonStreamWriter {
+    private static final int INDENT = 2;
+
+    private final Writer writer;
+    private final boolean prettyPrint;
+
+    private int depth = 0;
+    private boolean firstInContainer = true;
+    private boolean afterName = false;
+
+    public JsonStreamWriter(Writer writer, boolean prettyPrint) {
+        this.writer = writer;
+        this.prettyPrint = prettyPrint;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return begin('{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return end('}');
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return begin('[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return end(']');
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        beforeValue();
+        writer.write(JSONUtils.quote(name));
+        writer.write(prettyPrint ? ": " : ":");
+        afterName = true;
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        writer.write(JSONUtils.quote(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(double value) throws IOException {
+        beforeValue();
+        writer.write(JSONUtils.numberToString(value));
+        return this;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    private JsonStreamWriter begin(char bracket) throws IOException {
+        beforeValue();
+        writer.write(bracket);
+        depth++;
+        firstInContainer = true;
+        return this;
+    }
+
+    private JsonStreamWriter end(char bracket) throws IOException {
+        depth--;
+        if (!firstInContainer) {
+            newLine();
+        }
+        writer.write(bracket);
+        firstInContainer = false;
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!firstInContainer) {
+            writer.write(',');
+        }
+        if (depth > 0) {
+            newLine();
+        }
+        firstInContainer = false;
+    }
+
+    private void newLine() throws IOException {
+        if (prettyPrint) {
+            writer.write('\n');
+            for (int i = 0; i < depth * INDENT; i++) {
+                writer.write(' ');
+            }
+        }
+    }
+}
@@ -22,179 +22,287 @@
 
 package hudson.plugins.depgraph_view.model.display;
 
-import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Maps;
-import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
-import edu.uci.ics.jung.algorithms.filters.FilterUtils;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.uci.ics.jung.algorithms.layout.Layout;
-import edu.uci.ics.jung.algorithms.util.IterativeContext;
 import edu.uci.ics.jung.graph.Graph;
+import hudson.init.Terminator;
 import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.Edge;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
 import hudson.plugins.depgraph_view.model.layout.JungSugiyama;
-import net.sf.json.JSONObject;
+import hudson.plugins.depgraph_view.model.layout.LayeredLayout;
+import hudson.plugins.depgraph_view.model.layout.LayoutCache;
+import hudson.plugins.depgraph_view.model.layout.LayoutCache.ClusterLayout;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import static com.google.common.collect.Lists.newArrayList;
-import static com.google.common.collect.Ordering.natural;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Generates a Json representation of the graph
  */
 public class JsonStringGenerator extends AbstractGraphStringGenerator {
 
+    private static final Logger LOGGER = Logger.getLogger(JsonStringGenerator.class.getName());
+
+    // upper bounds for laying out a single cluster
+    private static final int LAYOUT_MAX_ITERATIONS =
+            Integer.getInteger(JsonStringGenerator.class.getName() + ".layoutMaxIterations", 100);
+    private static final long LAYOUT_TIME_BUDGET_MILLIS =
+            Long.getLong(JsonStringGenerator.class.getName() + ".layoutTimeBudgetMillis", 5000);
+
+    // clusters with at least this many nodes are laid out with the LayeredLayout
+    private static final int LAYERED_LAYOUT_THRESHOLD =
+            Integer.getInteger(JsonStringGenerator.class.getName() + ".layeredLayoutThreshold", 100);
+
+    private static final int LAYOUT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final int MAX_QUEUED_LAYOUTS = 4 * LAYOUT_THREADS;
+
+    /**
+     * Clusters which find the queue full are laid out on the calling thread, as are the clusters
+     * submitted after the executor was shut down.
+     */
+    private static final ThreadPoolExecutor LAYOUT_EXECUTOR = new ThreadPoolExecutor(
+            LAYOUT_THREADS, LAYOUT_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_QUEUED_LAYOUTS),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view cluster layout %d").build(),
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable layout, ThreadPoolExecutor executor) {
+                    layout.run();
+                }
+            });
+
+    static {
+        LAYOUT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final boolean prettyPrint;
+
+    private final LayoutCache layoutCache;
+
     public JsonStringGenerator(DependencyGraph graph, ListMultimap<ProjectNode, ProjectNode> projects2Subprojects) {
+        this(graph, projects2Subprojects, false);
+    }
+
+    public JsonStringGenerator(DependencyGraph graph, ListMultimap<ProjectNode, ProjectNode> projects2Subprojects, boolean prettyPrint) {
+        this(graph, projects2Subprojects, prettyPrint, null);
+    }
+
+    /**
+     * @param layoutCache reused layouts of clusters, may be null to lay out every cluster
+     */
+    public JsonStringGenerator(DependencyGraph graph, ListMultimap<ProjectNode, ProjectNode> projects2Subprojects,
+                               boolean prettyPrint, LayoutCache layoutCache) {
         super(graph, projects2Subprojects);
+        this.prettyPrint = prettyPrint;
+        this.layoutCache = layoutCache;
     }
 
     /**
-     * Generates the json for the given projects and dependencies
-     *
-     * @return json model
+     * Writes the json for the given projects and dependencies.
+     * Edges and clusters are written as soon as they are available, the json is never held in memory.
      */
     @Override
-    public String generate() {
-
-        List<Map<String, String>> edges = new ArrayList<Map<String, String>>();
+    public void generate(Writer writer) throws IOException {
+        JsonStreamWriter json = new JsonStreamWriter(writer, prettyPrint);
+        json.beginObject();
 
+        json.name("edges").beginArray();
         for (Edge edge : this.edges) {
-            addEdge(edges, edge);
+            writeEdge(json, edge);
         }
+        json.endArray();
 
         // a cluster is a group of jobs having at least one connection to each other through edges
-        List<Set<ProjectNode>> clusters = newArrayList(new WeakComponentClusterer<ProjectNode, Edge>().transform(graph.getGraph()));
-        Collections.sort(clusters, natural().onResultOf(new Function<Set<ProjectNode>, Integer>() {
-            @Override
-            public Integer apply(Set<ProjectNode> input) {
-                return input.size();
+        List<Graph<ProjectNode, Edge>> clusters = graph.getComponentGraphs();
+        // the clusters are independent, so they are laid out concurrently and written in their order
+        List<Future<ImmutableMap<String, Point2D>>> layouts = Lists.newArrayListWithCapacity(clusters.size());
+        for (final Graph<ProjectNode, Edge> cluster : clusters) {
+            layouts.add(LAYOUT_EXECUTOR.submit(new Callable<ImmutableMap<String, Point2D>>() {
+                @Override
+                public ImmutableMap<String, Point2D> call() {
+                    if (layoutCache == null) {
+                        return layout(cluster).getPoints();
+                    }
+                    return layoutCache.getLayout(cluster, new Callable<ClusterLayout>() {
+                        @Override
+                        public ClusterLayout call() {
+                            return layout(cluster);
+                        }
+                    });
+                }
+            }));
+        }
+        json.name("clusters").beginArray();
+        try {
+            for (int i = 0; i < clusters.size(); i++) {
+                writeCluster(json, clusters.get(i), layouts.get(i).get());
             }
-        }).reverse());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            // does nothing if all clusters were written
+            for (Future<ImmutableMap<String, Point2D>> layout : layouts) {
+                layout.cancel(true);
+            }
+        }
+        writeStandaloneCluster(json);
+        json.endArray();
 
+        json.endObject();
+        json.flush();
+    }
 
+    /**
+     * Lets the layout threads finish their clusters and end, so that they do not outlive the plugin
+     */
+    @Terminator
+    public static void shutdownLayoutExecutor() {
+        LAYOUT_EXECUTOR.shutdown();
+    }
 
-        List<Graph<ProjectNode, Edge>> subgraphs = newArrayList(FilterUtils.createAllInducedSubgraphs(clusters, graph.getGraph()));
-        List<Map<String, Object>> clusterList = newArrayList();
-        for (Graph<ProjectNode, Edge> subgraph : subgraphs) {
-            if (subgraph.getVertexCount() == 1) {
-                continue;
+    /**
+     * @return the points of the nodes of the cluster by their full names
+     */
+    private static ClusterLayout layout(Graph<ProjectNode, Edge> cluster) {
+        Layout<ProjectNode, Edge> layout;
+        boolean budgetExhausted;
+        if (cluster.getVertexCount() >= LAYERED_LAYOUT_THRESHOLD) {
+            // counts the crossings, which pays off on large clusters
+            LayeredLayout<ProjectNode, Edge> layeredLayout = new LayeredLayout<ProjectNode, Edge>(cluster);
+            layeredLayout.setTimeBudgetMillis(LAYOUT_TIME_BUDGET_MILLIS);
+            layeredLayout.initialize();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Laid out a cluster of {0} nodes and {1} edges with {2} crossings{3}",
+                        new Object[] {cluster.getVertexCount(), cluster.getEdgeCount(), layeredLayout.getCrossings(),
+                                layeredLayout.isBudgetExhausted() ? ", the budget was exhausted" : ""});
             }
-            Layout<ProjectNode, Edge> layout = new JungSugiyama<ProjectNode, Edge>(subgraph);
-            layout.setSize(new Dimension(300,800));
-            layout.initialize();
-            if (layout instanceof IterativeContext) {
-                IterativeContext context = (IterativeContext) layout;
-                for (int i = 0; i < 700; i ++) {
-                    context.step();
-                    if (context.done()) {
-                        break;
-                    }
-                }
+            layout = layeredLayout;
+            budgetExhausted = layeredLayout.isBudgetExhausted();
+        } else {
+            JungSugiyama<ProjectNode, Edge> sugiyama = new JungSugiyama<ProjectNode, Edge>(cluster);
+            sugiyama.setSize(new Dimension(300,800));
+            sugiyama.setMaxIterations(LAYOUT_MAX_ITERATIONS);
+            sugiyama.setTimeBudgetMillis(LAYOUT_TIME_BUDGET_MILLIS);
+            sugiyama.initialize();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Laid out a cluster of {0} nodes and {1} edges in {2} ns per phase{3}",
+                        new Object[] {cluster.getVertexCount(), cluster.getEdgeCount(), sugiyama.getPhaseNanos(),
+                                sugiyama.isBudgetExhausted() ? ", the budget was exhausted" : ""});
             }
+            layout = sugiyama;
+            budgetExhausted = sugiyama.isBudgetExhausted();
+        }
+        ImmutableMap.Builder<String, Point2D> points = ImmutableMap.builder();
+        for (ProjectNode node : cluster.getVertices()) {
+            Point2D point = layout.transform(node);
+            points.put(node.getFullName(), new Point2D.Double(point.getX(), point.getY()));
+        }
+        return new ClusterLayout(points.build(), budgetExhausted);
+    }
 
-            List<Map<String,Object>> nodeList = newArrayList();
-            double minX = 300;
-            double maxX = 0;
-            double minY = 800;
-            double maxY = 0;
-            for (ProjectNode node : subgraph.getVertices()) {
-                Point2D point = layout.transform(node);
-                if (point.getX() > maxX) {
-                    maxX = point.getX();
-                }
-                if (point.getX() < minX) {
-                    minX = point.getX();
-                }
-                if (point.getY() > maxY) {
-                    maxY = point.getY();
-                }
-                if (point.getY() < minY) {
-                    minY = point.getY();
-                }
+    private void writeCluster(JsonStreamWriter json, Graph<ProjectNode, Edge> subgraph, Map<String, Point2D> points)
+            throws IOException {
+        double minX = 300;
+        double maxX = 0;
+        double minY = 800;
+        double maxY = 0;
+        for (ProjectNode node : subgraph.getVertices()) {
+            Point2D point = points.get(node.getFullName());
+            if (point.getX() > maxX) {
+                maxX = point.getX();
             }
-
-            for (ProjectNode node : subgraph.getVertices()) {
-                Point2D point = layout.transform(node);
-                nodeList.add(
-                        point2Json(point.getX() - minX, point.getY() - minY, node));
+            if (point.getX() < minX) {
+                minX = point.getX();
+            }
+            if (point.getY() > maxY) {
+                maxY = point.getY();
+            }
+            if (point.getY() < minY) {
+                minY = point.getY();
             }
-            Map<String, Object> cluster =
-                    createCluster(nodeList, maxX - minX, maxY - minY);
-            clusterList.add(cluster);
         }
-        Map<String, Object> standaloneCluster = createStandaloneCluster();
-        clusterList.add(standaloneCluster);
-
-        JSONObject json = new JSONObject();
-        json.put("edges", edges);
-        json.put("clusters", clusterList);
 
-        final String jsonStr = json.toString(2);
-        return jsonStr;
+        json.beginObject();
+        json.name("nodes").beginArray();
+        for (ProjectNode node : subgraph.getVertices()) {
+            Point2D point = points.get(node.getFullName());
+            point2Json(json, point.getX() - minX, point.getY() - minY, node);
+        }
+        json.endArray();
+        json.name("hSize").value(maxX - minX);
+        json.name("vSize").value(maxY - minY);
+        json.endObject();
     }
 
-    private Map<String, Object> createStandaloneCluster() {
+    private void writeStandaloneCluster(JsonStreamWriter json) throws IOException {
         final double nodeXSize = 150;
         final double nodeYSize = 90;
         final int nodesPerRow = 5;
-        List<Map<String,Object>> nodeList = newArrayList();
+        json.beginObject();
+        json.name("nodes").beginArray();
         int row = 0;
         int column = 0;
         for (ProjectNode node : standaloneProjects) {
-            nodeList.add(point2Json(column * nodeXSize, row * nodeYSize,node));
+            point2Json(json, column * nodeXSize, row * nodeYSize, node);
             column += 1;
             if (column >= nodesPerRow) {
                 row += 1;
                 column = 0;
             }
         }
-        return createCluster(nodeList, 700.0,(standaloneProjects.size()/nodesPerRow + 1) * nodeYSize);
-    }
-
-    private Map<String, Object> createCluster(List<Map<String, Object>> nodeList, double hSize, double vSize) {
-        Map<String, Object> cluster = Maps.newHashMap();
-        cluster.put("nodes", nodeList);
-        cluster.put("hSize", hSize);
-        cluster.put("vSize", vSize);
-        return cluster;
+        json.endArray();
+        json.name("hSize").value(700.0);
+        json.name("vSize").value((standaloneProjects.size()/nodesPerRow + 1) * nodeYSize);
+        json.endObject();
     }
 
-    private ImmutableMap<String, Object> point2Json(double x, double y, ProjectNode node) {
-        return ImmutableMap.<String, Object>builder()
-                .put("name", node.getName())
-                .put("fullName", node.getProject().getFullName())
-                .put("url", node.getProject().getAbsoluteUrl())
-                .put("x", x)
-                .put("y", y)
-                .build();
+    private void point2Json(JsonStreamWriter json, double x, double y, ProjectNode node) throws IOException {
+        json.beginObject()
+                .name("name").value(node.getName())
+                .name("fullName").value(node.getFullName())
+                .name("url").value(node.getUrl())
+                .name("x").value(x)
+                .name("y").value(y)
+                .endObject();
     }
 
     /**
-     * Adds an edge between the jobs of the dependency.
+     * Writes an edge between the jobs of the dependency.
      *
-     * @param edges
-     *            the edges to add the dependency to (results in the json)
+     * @param json
+     *            the json to write the dependency to
      * @param edge
      *            the dependency to to be added
      */
-    private void addEdge(List<Map<String, String>> edges, Edge edge) {
-        Map<String, String> jsonEdge = new HashMap<String, String>();
-        final String fullDisplayNameFrom = edge.source.getName();
-        final String fullDisplayNameTo = edge.target.getName();
-        jsonEdge.put("from", fullDisplayNameFrom);
-        jsonEdge.put("to", fullDisplayNameTo);
-        jsonEdge.put("type", edge.getType());
-        edges.add(jsonEdge);
+    private void writeEdge(JsonStreamWriter json, Edge edge) throws IOException {
+        json.beginObject()
+                .name("from").value(source(edge).getName())
+                .name("to").value(target(edge).getName())
+                .name("type").value(edge.getType())
+                .endObject();
     }
 
 }
@@ -26,6 +26,9 @@ import com.google.common.collect.ArrayListMultimap;
 import hudson.plugins.depgraph_view.model.graph.DependencyGraph;
 import hudson.plugins.depgraph_view.model.graph.ProjectNode;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Generates the legend in dot format.
  */
@@ -36,17 +39,16 @@ public class LegendDotStringGenerator extends AbstractDotStringGenerator {
     }
 
     @Override
-    public String generate() {
+    public void generate(Writer writer) throws IOException {
             /**** Build the dot source file ****/
-            StringBuilder builder = new StringBuilder();
-
-            builder.append("digraph {\n");
-            builder.append("node [shape=box, style=rounded];\n");
+            writer.write("digraph {\n");
+            writer.write("node [shape=box, style=rounded];\n");
 
-            builder.append(cluster("Legend", legend()));
+            startCluster(writer, "Legend");
+            writer.write(legend());
+            endCluster(writer);
 
-            builder.append("}");
-            return builder.toString();
+            writer.write("}");
     }
 
     private String legend() {
@@ -22,6 +22,7 @@
 
 package hudson.plugins.depgraph_view.model.graph;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import hudson.model.AbstractProject;
 import hudson.model.FreeStyleProject;
@@ -38,7 +39,7 @@ import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
 /**
  * Provides {@link CopyArtifactEdge}s by inspecting the configuration of the {@link CopyArtifact} Plugin.
  */
-public class CopyArtifactEdgeProvider implements EdgeProvider {
+public class CopyArtifactEdgeProvider implements EdgeProvider, ProjectNameReferences {
 
     private boolean copyartifactIsInstalled;
 
@@ -51,6 +52,25 @@ public class CopyArtifactEdgeProvider implements EdgeProvider {
     public Iterable<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
         Set<Edge> artifactEdges = Sets.newHashSet();
 
+        for (String projectName : getReferencedProjectNames(project)) {
+            Jenkins jenkins = Jenkins.getInstance();
+            AbstractProject<?,?> projectFromName = jenkins.getItem(projectName, project.getParent(), AbstractProject.class);
+
+            if (projectFromName != null) {
+                artifactEdges.add(
+                        new CopyArtifactEdge(node(projectFromName), node(project)));
+            }
+        }
+        return artifactEdges;
+    }
+
+    /**
+     * @return the names of the projects the {@link CopyArtifact} builders of the given project copy from
+     */
+    @Override
+    public Iterable<String> getReferencedProjectNames(AbstractProject<?, ?> project) {
+        List<String> projectNames = Lists.newArrayList();
+
         if (copyartifactIsInstalled) {
             if(project instanceof FreeStyleProject) {
 
@@ -62,18 +82,11 @@ public class CopyArtifactEdgeProvider implements EdgeProvider {
                     if (builder instanceof CopyArtifact) {
 
                         CopyArtifact caBuilder = (CopyArtifact) builder;
-                        String projectName = caBuilder.getProjectName();
-                        Jenkins jenkins = Jenkins.getInstance();
-                        AbstractProject<?,?> projectFromName = jenkins.getItem(projectName, project.getParent(), AbstractProject.class);
-
-                        if (projectFromName != null) {
-                            artifactEdges.add(
-                                    new CopyArtifactEdge(node(projectFromName), node(project)));
-                        }
+                        projectNames.add(caBuilder.getProjectName());
                     }
                 }
             }
         }
-        return artifactEdges;
+        return projectNames;
     }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2012 Stefan Wolf
+ * Copyright (c) 2010 Stefan Wolf
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -22,69 +22,510 @@
 
 package hudson.plugins.depgraph_view.model.graph;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import edu.uci.ics.jung.algorithms.filters.VertexPredicateFilter;
 import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
 import edu.uci.ics.jung.graph.Graph;
-import org.apache.commons.collections15.Predicate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /**
  * The dependency graph which should be drawn.
+ * Nodes are interned to int ids in the order they are added. The graph keeps its own {@link ProjectNode}
+ * per project, which caches the names and the url of the project, see {@link #getNode(ProjectNode)}.
+ * While edges are added, the ids of the edges of every node are kept in growable arrays to find duplicates.
+ * On the first read the adjacency is frozen into compressed rows: the targets and the types of the edges
+ * grouped by their sources, with the offset of the row of each node. The added {@link Edge}s are not kept,
+ * the type and the color of an edge are those of the first edge of its type. {@link Edge}s are only created
+ * again when they are read, e.g. for the JUNG graphs of the layout. Adding an edge after the graph was read
+ * unfreezes the adjacency, which is frozen again on the next read.
  */
 public class DependencyGraph {
 
-    private DirectedSparseMultigraph<ProjectNode, Edge> graph = new DirectedSparseMultigraph<ProjectNode, Edge>();
+    private static final int[] NO_EDGES = new int[0];
+
+    private final ArrayList<ProjectNode> nodes = Lists.newArrayList();
+    // open addressing table of the node ids + 1 by the hash of their projects, 0 marks a free slot
+    private int[] nodeTable = new int[32];
+
+    // an edge type is the class of the edge, as edges are equal if their classes and endpoints are
+    private final List<Class<?>> types = Lists.newArrayList();
+    private final List<String> typeNames = Lists.newArrayList();
+    private final List<String> typeColors = Lists.newArrayList();
+
+    // the adjacency while edges are added, null once it is frozen
+    private Rows rows = new Rows();
+
+    // the adjacency once it is read, null while edges are added
+    private Frozen frozen;
 
     public void addEdge(Edge edge) {
-        graph.addEdge(edge, edge.getNodes());
+        int source = addNode(edge.source);
+        int target = addNode(edge.target);
+        Rows rows = rows();
+        int type = typeOf(edge);
+        if (rows.findEdge(source, target, type) < 0) {
+            rows.appendEdge(source, target, type);
+        }
     }
 
     public <T extends Edge> Set<ProjectNode> addEdgesWithNodes(Iterable<T> edges) {
         Set<ProjectNode> newNodes = Sets.newHashSet();
+        addEdgesWithNodes(edges, newNodes);
+        return newNodes;
+    }
+
+    /**
+     * Adds the edges which are not yet contained in the graph together with their nodes
+     * @param newNodes receives the nodes which were not yet contained in the graph
+     */
+    public <T extends Edge> void addEdgesWithNodes(Iterable<T> edges, Collection<ProjectNode> newNodes) {
+        Rows rows = rows();
         for (T edge : edges) {
-            for (ProjectNode node: edge.getNodes()) {
-                if (!graph.containsVertex(node)) {
-                    graph.addVertex(node);
-                    newNodes.add(node);
+            int source = nodeId(edge.source);
+            int target = nodeId(edge.target);
+            int type = typeOf(edge);
+            if (source >= 0 && target >= 0 && rows.findEdge(source, target, type) >= 0) {
+                continue;
+            }
+            if (source < 0) {
+                source = addNode(edge.source);
+                newNodes.add(nodes.get(source));
+            }
+            if (target < 0) {
+                target = nodeId(edge.target);
+                if (target < 0) {
+                    target = addNode(edge.target);
+                    newNodes.add(nodes.get(target));
                 }
             }
-            addEdge(edge);
+            rows.appendEdge(source, target, type);
         }
-        return newNodes;
     }
 
     public <T extends ProjectNode> void addNodes(Iterable<T> nodes) {
         for (T node : nodes) {
-            graph.addVertex(node);
+            addNode(node);
+        }
+    }
+
+    private int addNode(ProjectNode node) {
+        int id = nodeId(node);
+        if (id >= 0) {
+            return id;
+        }
+        rows().addNode();
+        int newId = nodes.size();
+        nodes.add(ProjectNode.interned(node.getProject()));
+        if (2 * nodes.size() > nodeTable.length) {
+            nodeTable = new int[2 * nodeTable.length];
+            for (int node2 = 0; node2 < newId; node2++) {
+                putNodeId(node2);
+            }
+        }
+        putNodeId(newId);
+        return newId;
+    }
+
+    /**
+     * @return the id of the node of the same project, or -1
+     */
+    private int nodeId(ProjectNode node) {
+        int mask = nodeTable.length - 1;
+        for (int slot = spread(node.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int id = nodeTable[slot] - 1;
+            if (id < 0 || nodes.get(id).equals(node)) {
+                return id;
+            }
+        }
+    }
+
+    private void putNodeId(int id) {
+        int mask = nodeTable.length - 1;
+        int slot = spread(nodes.get(id).hashCode()) & mask;
+        while (nodeTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        nodeTable[slot] = id + 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int typeOf(Edge edge) {
+        int type = types.indexOf(edge.getClass());
+        if (type < 0) {
+            type = types.size();
+            if (type > 0xff) {
+                throw new IllegalStateException("Too many types of edges");
+            }
+            types.add(edge.getClass());
+            typeNames.add(edge.getType());
+            typeColors.add(edge.getColor());
         }
+        return type;
     }
 
+    /**
+     * @return the adjacency to add edges to, which is unfrozen if it was read
+     */
+    private synchronized Rows rows() {
+        if (rows == null) {
+            rows = new Rows(frozen, nodes.size());
+            frozen = null;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the frozen adjacency. The graph may be shared between request threads by the GraphCache,
+     *         so it is frozen under the lock of the graph.
+     */
+    private synchronized Frozen frozen() {
+        if (frozen == null) {
+            frozen = new Frozen(rows, nodes.size());
+            rows = null;
+            nodes.trimToSize();
+        }
+        return frozen;
+    }
+
+    /**
+     * @return the edges of the graph, which are created on every call and not kept by the graph
+     */
     public Collection<Edge> getEdges() {
-        return graph.getEdges();
+        Frozen adjacency = frozen();
+        List<Edge> edges = Lists.newArrayListWithCapacity(adjacency.targets.length);
+        for (int source = 0; source < nodes.size(); source++) {
+            for (int edge = adjacency.offsets[source]; edge < adjacency.offsets[source + 1]; edge++) {
+                edges.add(edge(source, adjacency, edge));
+            }
+        }
+        return Collections.unmodifiableList(edges);
     }
 
     public Collection<Edge> findEdgeSet(ProjectNode from, ProjectNode to) {
-        return graph.findEdgeSet(from, to);
+        int source = nodeId(from);
+        int target = nodeId(to);
+        if (source < 0 || target < 0) {
+            return Collections.emptyList();
+        }
+        Frozen adjacency = frozen();
+        List<Edge> found = Lists.newArrayList();
+        for (int edge = adjacency.offsets[source]; edge < adjacency.offsets[source + 1]; edge++) {
+            if (adjacency.targets[edge] == target) {
+                found.add(edge(source, adjacency, edge));
+            }
+        }
+        return found;
+    }
+
+    private Edge edge(int source, Frozen adjacency, int edge) {
+        int type = adjacency.types[edge] & 0xff;
+        return new GraphEdge(nodes.get(source), nodes.get(adjacency.targets[edge]),
+                typeNames.get(type), typeColors.get(type));
     }
 
     public Collection<ProjectNode> getNodes() {
-        return graph.getVertices();
+        frozen();
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return the node of the graph which is equal to the given one, or null if there is none.
+     *         The names of the returned node are only computed once.
+     */
+    public ProjectNode getNode(ProjectNode node) {
+        int id = nodeId(node);
+        return id < 0 ? null : nodes.get(id);
+    }
+
+    public boolean containsNode(ProjectNode node) {
+        return nodeId(node) >= 0;
+    }
+
+    /**
+     * @return the number of edges incident with the given node, self loops are counted twice
+     */
+    public int degree(ProjectNode node) {
+        int id = nodeId(node);
+        return id < 0 ? 0 : frozen().degree(id);
     }
 
     public Collection<ProjectNode> getIsolatedNodes() {
-        return new VertexPredicateFilter<ProjectNode, Edge>(new Predicate<ProjectNode>() {
+        Frozen adjacency = frozen();
+        List<ProjectNode> isolated = Lists.newArrayList();
+        for (int node = 0; node < nodes.size(); node++) {
+            if (adjacency.degree(node) == 0) {
+                isolated.add(nodes.get(node));
+            }
+        }
+        return isolated;
+    }
+
+    /**
+     * The weakly connected components with more than one node, largest first.
+     * Each component is a JUNG graph containing all edges between its nodes, e.g. to lay it out.
+     */
+    public List<Graph<ProjectNode, Edge>> getComponentGraphs() {
+        Frozen adjacency = frozen();
+        int nodeCount = nodes.size();
+        int[] parents = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            parents[node] = node;
+        }
+        for (int source = 0; source < nodeCount; source++) {
+            for (int edge = adjacency.offsets[source]; edge < adjacency.offsets[source + 1]; edge++) {
+                int sourceRoot = root(parents, source);
+                int targetRoot = root(parents, adjacency.targets[edge]);
+                if (sourceRoot != targetRoot) {
+                    parents[Math.max(sourceRoot, targetRoot)] = Math.min(sourceRoot, targetRoot);
+                }
+            }
+        }
+        // components are numbered in the order of their first node
+        int[] components = new int[nodeCount];
+        List<int[]> sizes = Lists.newArrayList();
+        for (int node = 0; node < nodeCount; node++) {
+            int root = root(parents, node);
+            if (root == node) {
+                components[node] = sizes.size();
+                sizes.add(new int[] {0});
+            } else {
+                components[node] = components[root];
+            }
+            sizes.get(components[node])[0]++;
+        }
+
+        List<Graph<ProjectNode, Edge>> graphs = Lists.newArrayListWithCapacity(sizes.size());
+        for (int component = 0; component < sizes.size(); component++) {
+            graphs.add(sizes.get(component)[0] > 1 ? new DirectedSparseMultigraph<ProjectNode, Edge>() : null);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            Graph<ProjectNode, Edge> graph = graphs.get(components[node]);
+            if (graph != null) {
+                graph.addVertex(nodes.get(node));
+            }
+        }
+        for (int source = 0; source < nodeCount; source++) {
+            Graph<ProjectNode, Edge> graph = graphs.get(components[source]);
+            if (graph != null) {
+                addEdges(graph, adjacency, source);
+            }
+        }
+        graphs.removeAll(Collections.singleton(null));
+        // the sort is stable, so components of the same size keep their order
+        Collections.sort(graphs, new Comparator<Graph<ProjectNode, Edge>>() {
             @Override
-            public boolean evaluate(ProjectNode projectNode) {
-                return graph.degree(projectNode) == 0;
+            public int compare(Graph<ProjectNode, Edge> a, Graph<ProjectNode, Edge> b) {
+                return b.getVertexCount() - a.getVertexCount();
             }
-        }).transform(graph).getVertices();
+        });
+        return graphs;
     }
 
+    private static int root(int[] parents, int node) {
+        int root = node;
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+        // path compression
+        while (parents[node] != root) {
+            int next = parents[node];
+            parents[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    /**
+     * @return a JUNG view of the whole graph, which is created on every call and not kept by the graph
+     */
     public Graph<ProjectNode, Edge> getGraph() {
+        Frozen adjacency = frozen();
+        DirectedSparseMultigraph<ProjectNode, Edge> graph = new DirectedSparseMultigraph<ProjectNode, Edge>();
+        for (ProjectNode node : nodes) {
+            graph.addVertex(node);
+        }
+        for (int source = 0; source < nodes.size(); source++) {
+            addEdges(graph, adjacency, source);
+        }
         return graph;
     }
 
+    private void addEdges(Graph<ProjectNode, Edge> graph, Frozen adjacency, int source) {
+        for (int edge = adjacency.offsets[source]; edge < adjacency.offsets[source + 1]; edge++) {
+            graph.addEdge(edge(source, adjacency, edge), nodes.get(source), nodes.get(adjacency.targets[edge]));
+        }
+    }
+
+    /**
+     * The edges while they are added: their endpoints and types in the order they were added,
+     * and the ids of the edges of each node
+     */
+    private static final class Rows {
+        private int edgeCount;
+        private int[] edgeSources = new int[16];
+        private int[] edgeTargets = new int[16];
+        private byte[] edgeTypes = new byte[16];
+
+        private int nodeCount;
+        private int[][] outEdges = new int[16][];
+        private int[][] inEdges = new int[16][];
+        private int[] outDegrees = new int[16];
+        private int[] inDegrees = new int[16];
+
+        Rows() {
+        }
+
+        /**
+         * Unfreezes the given adjacency
+         */
+        Rows(Frozen frozen, int nodeCount) {
+            for (int node = 0; node < nodeCount; node++) {
+                addNode();
+            }
+            for (int source = 0; source < nodeCount; source++) {
+                for (int edge = frozen.offsets[source]; edge < frozen.offsets[source + 1]; edge++) {
+                    appendEdge(source, frozen.targets[edge], frozen.types[edge] & 0xff);
+                }
+            }
+        }
+
+        void addNode() {
+            if (nodeCount == outDegrees.length) {
+                int capacity = nodeCount * 2;
+                outEdges = Arrays.copyOf(outEdges, capacity);
+                inEdges = Arrays.copyOf(inEdges, capacity);
+                outDegrees = Arrays.copyOf(outDegrees, capacity);
+                inDegrees = Arrays.copyOf(inDegrees, capacity);
+            }
+            outEdges[nodeCount] = NO_EDGES;
+            inEdges[nodeCount] = NO_EDGES;
+            nodeCount++;
+        }
+
+        void appendEdge(int source, int target, int type) {
+            int id = edgeCount++;
+            if (id == edgeSources.length) {
+                int capacity = id * 2;
+                edgeSources = Arrays.copyOf(edgeSources, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+                edgeTypes = Arrays.copyOf(edgeTypes, capacity);
+            }
+            edgeSources[id] = source;
+            edgeTargets[id] = target;
+            edgeTypes[id] = (byte) type;
+            outEdges[source] = append(outEdges[source], outDegrees[source]++, id);
+            inEdges[target] = append(inEdges[target], inDegrees[target]++, id);
+        }
+
+        private static int[] append(int[] array, int size, int value) {
+            int[] result = array;
+            if (size == array.length) {
+                result = Arrays.copyOf(array, Math.max(4, size * 2));
+            }
+            result[size] = value;
+            return result;
+        }
+
+        /**
+         * @return the id of the edge of the given type between the given nodes, or -1
+         */
+        int findEdge(int source, int target, int type) {
+            // scan the shorter adjacency of both endpoints
+            if (outDegrees[source] <= inDegrees[target]) {
+                int[] candidates = outEdges[source];
+                for (int i = 0; i < outDegrees[source]; i++) {
+                    int edge = candidates[i];
+                    if (edgeTargets[edge] == target && (edgeTypes[edge] & 0xff) == type) {
+                        return edge;
+                    }
+                }
+            } else {
+                int[] candidates = inEdges[target];
+                for (int i = 0; i < inDegrees[target]; i++) {
+                    int edge = candidates[i];
+                    if (edgeSources[edge] == source && (edgeTypes[edge] & 0xff) == type) {
+                        return edge;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The edges in compressed rows: the edges of the node with the id n are those from offsets[n] to
+     * offsets[n + 1] - 1 in the order they were added, with their targets and types at these positions
+     */
+    private static final class Frozen {
+        private final int[] offsets;
+        private final int[] targets;
+        private final byte[] types;
+        private final int[] inDegrees;
+
+        Frozen(Rows rows, int nodeCount) {
+            offsets = new int[nodeCount + 1];
+            targets = new int[rows.edgeCount];
+            types = new byte[rows.edgeCount];
+            inDegrees = Arrays.copyOf(rows.inDegrees, nodeCount);
+            int offset = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                offsets[node] = offset;
+                int[] edges = rows.outEdges[node];
+                for (int i = 0; i < rows.outDegrees[node]; i++) {
+                    targets[offset] = rows.edgeTargets[edges[i]];
+                    types[offset] = rows.edgeTypes[edges[i]];
+                    offset++;
+                }
+            }
+            offsets[nodeCount] = offset;
+        }
+
+        int degree(int node) {
+            return offsets[node + 1] - offsets[node] + inDegrees[node];
+        }
+    }
+
+    /**
+     * An edge created from the adjacency of the graph, with the type and the color of its type
+     */
+    private static final class GraphEdge extends Edge {
+        private final String type;
+        private final String color;
+
+        GraphEdge(ProjectNode source, ProjectNode target, String type, String color) {
+            super(source, target);
+            this.type = type;
+            this.color = color;
+        }
+
+        @Override
+        public String getType() {
+            return type;
+        }
+
+        @Override
+        public String getColor() {
+            return color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && type.equals(((GraphEdge) o).type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + type.hashCode();
+        }
+    }
 }
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Injector;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the edges the {@link EdgeProvider}s yield for every project, so that
+ * calculating a graph does not have to ask the providers again for each request.
+ * The edges of the Jenkins dependency graph are not indexed (see {@link #isIndexed}).
+ * The index is built in the background as {@link ACL#SYSTEM}. Single projects are updated in place when they
+ * are saved, repeated saves of a project waiting for its update are merged into that update.
+ * The edges of other projects may refer to a project by name (e.g. a {@link CopyArtifactEdge} to an upstream
+ * project created later), so when a project is created or copied, the projects which refer to its name
+ * (see {@link ProjectNameReferences}) are updated as well. The whole index is dropped and rebuilt when
+ * projects are deleted or renamed, or when a project is created while a provider does not tell the names
+ * it refers to. Projects which are not (yet) indexed are reported as such, so that the caller can ask
+ * the providers directly.
+ */
+@Singleton
+public class EdgeIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(EdgeIndex.class.getName());
+
+    private static final Splitter NAME_SEGMENTS = Splitter.on('/').trimResults().omitEmptyStrings();
+
+    private final Provider<Set<EdgeProvider>> edgeProvidersProvider;
+
+    private final ThreadPoolExecutor indexer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view edge index").build());
+
+    private volatile Index index;
+
+    // counts the invalidations of the whole index, an index built for an older version is not published
+    private long version;
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    // projects changed since they were indexed, mapped to the sequence number of their last change
+    private final ConcurrentMap<AbstractProject<?, ?>, Long> dirty = Maps.newConcurrentMap();
+
+    private final AtomicLong changes = new AtomicLong();
+
+    // the projects by the names they refer to, split into their path segments so that a relative name
+    // is found by the name of the project it resolves to
+    private final ConcurrentMap<String, Set<AbstractProject<?, ?>>> referrers = Maps.newConcurrentMap();
+
+    // the names each project refers to, to remove it from the referrers when they change
+    private final ConcurrentMap<AbstractProject<?, ?>, Set<String>> references = Maps.newConcurrentMap();
+
+    // whether all providers tell the names they refer to, so that the referrers are complete
+    private volatile boolean referencesKnown;
+
+    @Inject
+    public EdgeIndex(Provider<Set<EdgeProvider>> edgeProvidersProvider) {
+        this.edgeProvidersProvider = edgeProvidersProvider;
+        indexer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the indexed edges incident with the given project, including those with projects the current user
+     *         may not see, or null if the project is not indexed
+     */
+    public List<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
+        Index current = index;
+        if (current == null) {
+            scheduleRebuild();
+            return null;
+        }
+        if (dirty.containsKey(project)) {
+            return null;
+        }
+        return current.edges.get(project);
+    }
+
+    /**
+     * The edges of the {@link DependencyGraphEdgeProvider} are not indexed, as Jenkins replaces its dependency
+     * graph whenever a job is created or configured, and the graph already is an index of these edges.
+     *
+     * @return whether the index holds the edges of the given provider, the others are to be asked directly
+     */
+    static boolean isIndexed(EdgeProvider edgeProvider) {
+        return !(edgeProvider instanceof DependencyGraphEdgeProvider);
+    }
+
+    /**
+     * Drops the whole index and rebuilds it in the background. Until then all projects are reported as not indexed.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            version++;
+            index = null;
+        }
+        scheduleRebuild();
+    }
+
+    /**
+     * Rebuilds the whole index in the background.
+     */
+    public void scheduleRebuild() {
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            indexer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildScheduled.set(false);
+                    rebuild();
+                }
+            });
+        }
+    }
+
+    /**
+     * Indexes the given new project and the projects which refer to its name in the background.
+     * Until then they are reported as not indexed.
+     */
+    public void scheduleCreation(AbstractProject<?, ?> project) {
+        if (!referencesKnown) {
+            invalidate();
+            return;
+        }
+        scheduleUpdate(project);
+        // a project indexed concurrently registers its references before it looks up the projects,
+        // so it either is found here or finds the new project
+        Set<AbstractProject<?, ?>> referringProjects = referrers.get(project.getName());
+        if (referringProjects != null) {
+            for (AbstractProject<?, ?> referringProject : referringProjects) {
+                scheduleUpdate(referringProject);
+            }
+        }
+    }
+
+    /**
+     * Indexes the given project again in the background. Until then it is reported as not indexed.
+     * A project which already waits for its update is not queued again.
+     */
+    public void scheduleUpdate(final AbstractProject<?, ?> project) {
+        if (dirty.put(project, changes.incrementAndGet()) == null) {
+            indexer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Long change = dirty.get(project);
+                    update(project);
+                    // a change while the project was indexed keeps it dirty and needs another update
+                    if (change != null && !dirty.remove(project, change)) {
+                        indexer.execute(this);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the indexer ran the tasks queued so far
+     */
+    void awaitIndexer() throws InterruptedException, ExecutionException {
+        indexer.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private void rebuild() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return;
+        }
+        long indexVersion;
+        synchronized (this) {
+            indexVersion = version;
+        }
+        Set<EdgeProvider> edgeProviders = indexedEdgeProviders();
+        referencesKnown = referencesKnown(edgeProviders);
+        SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+        try {
+            ConcurrentMap<AbstractProject<?, ?>, ImmutableList<Edge>> edges = Maps.newConcurrentMap();
+            List<AbstractProject> projects = jenkins.getAllItems(AbstractProject.class);
+            for (AbstractProject<?, ?> project : projects) {
+                ImmutableList<Edge> projectEdges = index(project, edgeProviders);
+                if (projectEdges != null) {
+                    edges.put(project, projectEdges);
+                }
+            }
+            // forget the references of the projects which are gone
+            Set<AbstractProject> existingProjects = Sets.newHashSet(projects);
+            for (AbstractProject<?, ?> project : Sets.newHashSet(references.keySet())) {
+                if (!existingProjects.contains(project)) {
+                    updateReferences(project, ImmutableSet.<String>of());
+                }
+            }
+            publish(new Index(indexVersion, edges));
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+
+    /**
+     * Replaces the entry of the project in the current index. Only the indexer thread changes the index.
+     */
+    private void update(AbstractProject<?, ?> project) {
+        Index current = index;
+        if (current != null) {
+            SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+            try {
+                ImmutableList<Edge> projectEdges = index(project, indexedEdgeProviders());
+                if (projectEdges != null) {
+                    current.edges.put(project, projectEdges);
+                } else {
+                    current.edges.remove(project);
+                }
+            } finally {
+                SecurityContextHolder.setContext(previous);
+            }
+        }
+    }
+
+    /**
+     * Publishes the new index unless the index was invalidated while it was built
+     */
+    private synchronized void publish(Index newIndex) {
+        if (newIndex.version == version) {
+            index = newIndex;
+        }
+    }
+
+    /**
+     * Registers the names the project refers to, then looks up its edges
+     *
+     * @return the edges of the project or null if a provider failed
+     */
+    private ImmutableList<Edge> index(AbstractProject<?, ?> project, Set<EdgeProvider> edgeProviders) {
+        try {
+            Set<String> names = Sets.newHashSet();
+            for (EdgeProvider edgeProvider : edgeProviders) {
+                if (edgeProvider instanceof ProjectNameReferences) {
+                    for (String name : ((ProjectNameReferences) edgeProvider).getReferencedProjectNames(project)) {
+                        Iterables.addAll(names, NAME_SEGMENTS.split(name));
+                    }
+                }
+            }
+            updateReferences(project, names);
+
+            ImmutableList.Builder<Edge> edges = ImmutableList.builder();
+            for (EdgeProvider edgeProvider : edgeProviders) {
+                edges.addAll(edgeProvider.getEdgesIncidentWith(project));
+            }
+            return edges.build();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to index the edges of " + project.getFullName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the project to the referrers of its new names before it is removed from those of its old names
+     */
+    private void updateReferences(AbstractProject<?, ?> project, Set<String> names) {
+        for (String name : names) {
+            Set<AbstractProject<?, ?>> referringProjects = referrers.get(name);
+            if (referringProjects == null) {
+                Set<AbstractProject<?, ?>> newReferringProjects =
+                        Sets.newSetFromMap(Maps.<AbstractProject<?, ?>, Boolean>newConcurrentMap());
+                referringProjects = referrers.putIfAbsent(name, newReferringProjects);
+                if (referringProjects == null) {
+                    referringProjects = newReferringProjects;
+                }
+            }
+            referringProjects.add(project);
+        }
+        Set<String> oldNames = names.isEmpty() ? references.remove(project) : references.put(project, names);
+        if (oldNames != null) {
+            for (String name : Sets.difference(oldNames, names)) {
+                Set<AbstractProject<?, ?>> referringProjects = referrers.get(name);
+                if (referringProjects != null) {
+                    referringProjects.remove(project);
+                }
+            }
+        }
+    }
+
+    private Set<EdgeProvider> indexedEdgeProviders() {
+        Set<EdgeProvider> edgeProviders = Sets.newHashSet();
+        for (EdgeProvider edgeProvider : edgeProvidersProvider.get()) {
+            if (isIndexed(edgeProvider)) {
+                edgeProviders.add(edgeProvider);
+            }
+        }
+        return edgeProviders;
+    }
+
+    private static boolean referencesKnown(Set<EdgeProvider> edgeProviders) {
+        for (EdgeProvider edgeProvider : edgeProviders) {
+            if (!(edgeProvider instanceof ProjectNameReferences)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Index {
+        private final long version;
+        // replaced per project by the indexer thread
+        private final ConcurrentMap<AbstractProject<?, ?>, ImmutableList<Edge>> edges;
+
+        Index(long version, ConcurrentMap<AbstractProject<?, ?>, ImmutableList<Edge>> edges) {
+            this.version = version;
+            this.edges = edges;
+        }
+    }
+
+    private static EdgeIndex getEdgeIndex() {
+        Injector injector = Jenkins.lookup(Injector.class);
+        return injector == null ? null : injector.getInstance(EdgeIndex.class);
+    }
+
+    /**
+     * Updates the index when projects are created, copied or changed, drops it when projects are renamed or deleted.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            create(item);
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            create(item);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            update(item);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            invalidate();
+        }
+
+        private void update(Item item) {
+            EdgeIndex edgeIndex = getEdgeIndex();
+            if (edgeIndex != null && item instanceof AbstractProject) {
+                edgeIndex.scheduleUpdate((AbstractProject<?, ?>) item);
+            }
+        }
+
+        /**
+         * Items other than projects, like folders, may contain projects, so they drop the index
+         */
+        private void create(Item item) {
+            EdgeIndex edgeIndex = getEdgeIndex();
+            if (edgeIndex != null) {
+                if (item instanceof AbstractProject) {
+                    edgeIndex.scheduleCreation((AbstractProject<?, ?>) item);
+                } else {
+                    edgeIndex.invalidate();
+                }
+            }
+        }
+
+        private void invalidate() {
+            EdgeIndex edgeIndex = getEdgeIndex();
+            if (edgeIndex != null) {
+                edgeIndex.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Updates the index when the configuration of a project is saved.
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractProject) {
+                EdgeIndex edgeIndex = getEdgeIndex();
+                if (edgeIndex != null) {
+                    edgeIndex.scheduleUpdate((AbstractProject<?, ?>) o);
+                }
+            }
+        }
+    }
+}
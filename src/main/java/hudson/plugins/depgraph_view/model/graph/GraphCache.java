@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.ListMultimap;
+import com.google.inject.Injector;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches {@link GraphSnapshot}s, so that repeated requests for the graph of the same projects
+ * (e.g. graph.png and its graph.map) do not calculate the graph again.
+ * All snapshots are dropped when Jenkins rebuilds its dependency graph or when an item changes.
+ */
+@Singleton
+public class GraphCache {
+
+    private static final int MAX_SNAPSHOTS = 64;
+
+    private final Provider<GraphCalculator> graphCalculatorProvider;
+    private final Provider<SubprojectCalculator> subprojectCalculatorProvider;
+
+    private final Cache<Key, GraphSnapshot> snapshots = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SNAPSHOTS)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile hudson.model.DependencyGraph jenkinsDependencyGraph;
+
+    @Inject
+    public GraphCache(Provider<GraphCalculator> graphCalculatorProvider,
+                      Provider<SubprojectCalculator> subprojectCalculatorProvider) {
+        this.graphCalculatorProvider = graphCalculatorProvider;
+        this.subprojectCalculatorProvider = subprojectCalculatorProvider;
+    }
+
+    /**
+     * @return the snapshot of the graph containing the given projects, calculated on first use
+     */
+    public GraphSnapshot getSnapshot(Collection<? extends AbstractProject<?, ?>> projects) {
+        return getSnapshot(projects, Jenkins.getInstance().getRootUrl());
+    }
+
+    /**
+     * @param rootUrl the root url the urls of the nodes are computed from, may be null to compute them
+     *                from the current request on first use
+     * @return the snapshot of the graph containing the given projects, calculated on first use
+     */
+    public GraphSnapshot getSnapshot(final Collection<? extends AbstractProject<?, ?>> projects, final String rootUrl) {
+        checkJenkinsDependencyGraph();
+        Key key = new Key(projects, Jenkins.getAuthentication().getName(), Util.fixNull(rootUrl), generation.get());
+        try {
+            return snapshots.get(key, new Callable<GraphSnapshot>() {
+                @Override
+                public GraphSnapshot call() {
+                    DependencyGraph graph = graphCalculatorProvider.get()
+                            .generateGraph(GraphCalculator.abstractProjectSetToProjectNodeSet(projects));
+                    ListMultimap<ProjectNode, ProjectNode> subprojects = subprojectCalculatorProvider.get().generate(graph);
+                    GraphSnapshot snapshot = new GraphSnapshot(graph, subprojects);
+                    if (rootUrl != null) {
+                        snapshot.resolveUrls(rootUrl);
+                    }
+                    return snapshot;
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return a counter which changes whenever the cached snapshots are invalidated
+     */
+    public long getGeneration() {
+        checkJenkinsDependencyGraph();
+        return generation.get();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshots.invalidateAll();
+    }
+
+    private void checkJenkinsDependencyGraph() {
+        hudson.model.DependencyGraph current = Jenkins.getInstance().getDependencyGraph();
+        if (current != jenkinsDependencyGraph) {
+            jenkinsDependencyGraph = current;
+            invalidate();
+        }
+    }
+
+    /**
+     * A snapshot depends on the initial projects, the user (who may not see all projects),
+     * the root url its nodes link to (which differs between the host names Jenkins is reached by)
+     * and the generation of the cache.
+     */
+    private static final class Key {
+        private final ImmutableSortedSet<String> projectNames;
+        private final String user;
+        private final String rootUrl;
+        private final long generation;
+
+        Key(Collection<? extends AbstractProject<?, ?>> projects, String user, String rootUrl, long generation) {
+            ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.naturalOrder();
+            for (AbstractProject<?, ?> project : projects) {
+                names.add(project.getFullName());
+            }
+            this.projectNames = names.build();
+            this.user = user;
+            this.rootUrl = rootUrl;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (generation != key.generation) return false;
+            if (!projectNames.equals(key.projectNames)) return false;
+            if (!user.equals(key.user)) return false;
+            if (!rootUrl.equals(key.rootUrl)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = projectNames.hashCode();
+            result = 31 * result + user.hashCode();
+            result = 31 * result + rootUrl.hashCode();
+            result = 31 * result + (int) (generation ^ (generation >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * Drops the cached snapshots whenever a job is created, changed, renamed or deleted.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            invalidateCache();
+        }
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            invalidateCache();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidateCache();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            invalidateCache();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            invalidateCache();
+        }
+
+        private void invalidateCache() {
+            Injector injector = Jenkins.lookup(Injector.class);
+            if (injector != null) {
+                injector.getInstance(GraphCache.class).invalidate();
+            }
+        }
+    }
+}
@@ -24,15 +24,30 @@ package hudson.plugins.depgraph_view.model.graph;
 
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import hudson.init.Terminator;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
 
 import javax.inject.Inject;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
 
@@ -41,13 +56,50 @@ import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
  */
 public class GraphCalculator {
 
+    // frontiers smaller than this are expanded on the calling thread
+    private static final int PARALLEL_THRESHOLD = 32;
+
+    private static final int EXPANSION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final int MAX_QUEUED_CHUNKS = 4 * EXPANSION_THREADS;
+
+    /**
+     * Chunks which find the queue full are expanded on the calling thread, as are the chunks
+     * submitted after the executor was shut down.
+     */
+    private static final ThreadPoolExecutor EXPANSION_EXECUTOR = new ThreadPoolExecutor(
+            EXPANSION_THREADS, EXPANSION_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_QUEUED_CHUNKS),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("depgraph-view graph expansion %d").build(),
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable chunk, ThreadPoolExecutor executor) {
+                    chunk.run();
+                }
+            });
+
+    static {
+        EXPANSION_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private Set<EdgeProvider> edgeProviders;
 
-    @Inject
+    private EdgeIndex edgeIndex;
+
     public GraphCalculator(Set<EdgeProvider> edgeProviders) {
         this.edgeProviders = Sets.newHashSet(edgeProviders);
     }
 
+    /**
+     * The edges are looked up in the given index, the {@link EdgeProvider}s are only asked for projects
+     * which are not indexed and for the edges the index does not hold.
+     */
+    @Inject
+    public GraphCalculator(Set<EdgeProvider> edgeProviders, EdgeIndex edgeIndex) {
+        this(edgeProviders);
+        this.edgeIndex = edgeIndex;
+    }
+
     public DependencyGraph generateGraph(Iterable<ProjectNode> initialProjects) {
         DependencyGraph graph = new DependencyGraph();
         graph.addNodes(initialProjects);
@@ -55,22 +107,107 @@ public class GraphCalculator {
         return graph;
     }
 
+    /**
+     * Breadth first search starting at the given projects. The buffers for the frontiers
+     * and the edges are reused for all levels.
+     */
     private void extendGraph(DependencyGraph graph, Iterable<ProjectNode> fromProjects) {
+        List<ProjectNode> frontier = Lists.newArrayList(fromProjects);
+        List<ProjectNode> nextFrontier = Lists.newArrayList();
         List<Edge> newEdges = Lists.newArrayList();
-        for (ProjectNode projectNode : fromProjects) {
+        while (!frontier.isEmpty()) {
+            newEdges.clear();
+            if (frontier.size() < PARALLEL_THRESHOLD) {
+                addEdgesIncidentWith(frontier, newEdges);
+            } else {
+                addEdgesIncidentWithInParallel(frontier, newEdges);
+            }
+            nextFrontier.clear();
+            graph.addEdgesWithNodes(newEdges, nextFrontier);
+
+            List<ProjectNode> expanded = frontier;
+            frontier = nextFrontier;
+            nextFrontier = expanded;
+        }
+    }
+
+    private void addEdgesIncidentWith(List<ProjectNode> projectNodes, List<Edge> edges) {
+        for (ProjectNode projectNode : projectNodes) {
             AbstractProject<?,?> project = projectNode.getProject();
             if (project.hasPermission(Item.READ)) {
+                List<Edge> indexedEdges = edgeIndex != null ? edgeIndex.getEdgesIncidentWith(project) : null;
+                if (indexedEdges != null) {
+                    addReadableEdges(indexedEdges, edges);
+                }
                 for (EdgeProvider edgeProvider : edgeProviders) {
-                    Iterables.addAll(newEdges, edgeProvider.getEdgesIncidentWith(project));
+                    if (indexedEdges == null || !EdgeIndex.isIndexed(edgeProvider)) {
+                        addReadableEdges(edgeProvider.getEdgesIncidentWith(project), edges);
+                    }
                 }
             }
         }
-        Set<ProjectNode> newProj = graph.addEdgesWithNodes(newEdges);
-        if (!newProj.isEmpty()) {
-            extendGraph(graph, newProj);
+    }
+
+    /**
+     * Adds the edges whose source and target the current user may read. The edges of the index, which
+     * is built as {@link ACL#SYSTEM}, and the edges of the providers are filtered alike, so that the graph
+     * does not depend on whether a project is indexed.
+     */
+    private static void addReadableEdges(Iterable<Edge> candidates, List<Edge> edges) {
+        for (Edge edge : candidates) {
+            if (edge.source.getProject().hasPermission(Item.READ) && edge.target.getProject().hasPermission(Item.READ)) {
+                edges.add(edge);
+            }
         }
     }
 
+    /**
+     * Fans the frontier out in chunks to the expansion executor. The edges are merged in the order
+     * of the frontier, so the result is the same as expanding it on the calling thread.
+     */
+    private void addEdgesIncidentWithInParallel(List<ProjectNode> frontier, List<Edge> edges) {
+        // permissions are checked for the user requesting the graph
+        final Authentication authentication = Jenkins.getAuthentication();
+        int chunkSize = Math.max(PARALLEL_THRESHOLD / 2, (frontier.size() + EXPANSION_THREADS - 1) / EXPANSION_THREADS);
+        List<Future<List<Edge>>> chunks = Lists.newArrayList();
+        for (final List<ProjectNode> chunk : Lists.partition(frontier, chunkSize)) {
+            chunks.add(EXPANSION_EXECUTOR.submit(new Callable<List<Edge>>() {
+                @Override
+                public List<Edge> call() {
+                    SecurityContext previous = ACL.impersonate(authentication);
+                    try {
+                        List<Edge> chunkEdges = Lists.newArrayList();
+                        addEdgesIncidentWith(chunk, chunkEdges);
+                        return chunkEdges;
+                    } finally {
+                        SecurityContextHolder.setContext(previous);
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<List<Edge>> chunk : chunks) {
+                edges.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<List<Edge>> chunk : chunks) {
+                chunk.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Lets the expansion threads finish their chunks and end, so that they do not outlive the plugin
+     */
+    @Terminator
+    public static void shutdownExpansionExecutor() {
+        EXPANSION_EXECUTOR.shutdown();
+    }
+
     public static Iterable<ProjectNode> abstractProjectSetToProjectNodeSet(Iterable<? extends AbstractProject<?,?>> projects) {
         return Iterables.transform(projects, new Function<AbstractProject<?, ?>, ProjectNode>() {
             @Override
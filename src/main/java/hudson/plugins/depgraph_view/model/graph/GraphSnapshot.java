@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import com.google.common.collect.ListMultimap;
+
+/**
+ * A calculated {@link DependencyGraph} together with the subprojects of its nodes.
+ * Snapshots are shared between requests by the {@link GraphCache} and must not be modified.
+ */
+public class GraphSnapshot {
+    private final DependencyGraph graph;
+    private final ListMultimap<ProjectNode, ProjectNode> subprojects;
+
+    public GraphSnapshot(DependencyGraph graph, ListMultimap<ProjectNode, ProjectNode> subprojects) {
+        this.graph = graph;
+        this.subprojects = subprojects;
+    }
+
+    public DependencyGraph getGraph() {
+        return graph;
+    }
+
+    public ListMultimap<ProjectNode, ProjectNode> getSubprojects() {
+        return subprojects;
+    }
+
+    /**
+     * Computes the urls of the nodes and subprojects from the given root url, before the snapshot is shared.
+     * Needed to write the snapshot outside of a request, where Jenkins may not know its root url.
+     */
+    void resolveUrls(String rootUrl) {
+        for (ProjectNode node : graph.getNodes()) {
+            node.resolveUrl(rootUrl);
+        }
+        for (ProjectNode subproject : subprojects.values()) {
+            subproject.resolveUrl(rootUrl);
+        }
+    }
+}
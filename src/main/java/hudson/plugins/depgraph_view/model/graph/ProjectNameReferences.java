@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import hudson.model.AbstractProject;
+
+/**
+ * Implemented by {@link EdgeProvider}s which look up other projects by name, like the
+ * {@link CopyArtifactEdgeProvider}. Their edges change when a project of a referenced name is created,
+ * so the {@link EdgeIndex} indexes the referring projects again then. As long as any provider does
+ * not implement it, creating a project rebuilds the whole index.
+ */
+public interface ProjectNameReferences {
+    /**
+     * @return the names of the projects the given project refers to as they are configured,
+     *         whether such projects exist or not
+     */
+    public Iterable<String> getReferencedProjectNames(AbstractProject<?,?> project);
+}
@@ -23,6 +23,7 @@
 package hudson.plugins.depgraph_view.model.graph;
 
 import com.google.common.base.Preconditions;
+import hudson.Util;
 import hudson.model.AbstractProject;
 
 /**
@@ -31,17 +32,75 @@ import hudson.model.AbstractProject;
 public class ProjectNode {
     private final AbstractProject<?,?> project;
 
+    // only the nodes interned by a DependencyGraph cache their names, as they live no longer than the graph.
+    // The graph may be shared between request threads by the GraphCache, so the cached values are volatile
+    private final boolean cachesNames;
+    private volatile String name;
+    private volatile String fullName;
+    private volatile String url;
+
     public static ProjectNode node(AbstractProject<?, ?> project) {
         return new ProjectNode(project);
     }
 
+    /**
+     * @return a node which computes its names and its url only once
+     */
+    static ProjectNode interned(AbstractProject<?, ?> project) {
+        return new ProjectNode(project, true);
+    }
+
     public ProjectNode(AbstractProject<?, ?> project) {
+        this(project, false);
+    }
+
+    private ProjectNode(AbstractProject<?, ?> project, boolean cachesNames) {
         Preconditions.checkNotNull(project);
         this.project = project;
+        this.cachesNames = cachesNames;
     }
 
+    /**
+     * @return the full display name of the project
+     */
     public String getName() {
-        return project.getFullDisplayName();
+        if (!cachesNames) {
+            return project.getFullDisplayName();
+        }
+        if (name == null) {
+            name = project.getFullDisplayName();
+        }
+        return name;
+    }
+
+    public String getFullName() {
+        if (!cachesNames) {
+            return project.getFullName();
+        }
+        if (fullName == null) {
+            fullName = project.getFullName();
+        }
+        return fullName;
+    }
+
+    public String getUrl() {
+        if (!cachesNames) {
+            return project.getAbsoluteUrl();
+        }
+        if (url == null) {
+            url = project.getAbsoluteUrl();
+        }
+        return url;
+    }
+
+    /**
+     * Computes the url of an interned node like {@link AbstractProject#getAbsoluteUrl()},
+     * but from the given root url, so that it is known outside of a request
+     */
+    void resolveUrl(String rootUrl) {
+        if (cachesNames && url == null) {
+            url = Util.encode(rootUrl + project.getUrl());
+        }
     }
 
     public AbstractProject<?, ?> getProject() {
@@ -31,6 +31,7 @@ import java.util.Set;
 
 /**
  * Used to calculate the subprojects of a project given a set of providers.
+ * The subprojects are interned like the nodes of the graph, so they cache their names and urls as well.
  */
 public class SubprojectCalculator {
 
@@ -46,7 +47,9 @@ public class SubprojectCalculator {
         Collection<ProjectNode> nodes = graph.getNodes();
         for (ProjectNode node : nodes) {
             for (SubProjectProvider provider : providers) {
-                project2Subprojects.putAll(node, provider.getSubProjectsOf(node.getProject()));
+                for (ProjectNode subproject : provider.getSubProjectsOf(node.getProject())) {
+                    project2Subprojects.put(node, ProjectNode.interned(subproject.getProject()));
+                }
             }
         }
         return project2Subprojects;
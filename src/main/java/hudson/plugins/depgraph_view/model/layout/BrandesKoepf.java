@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import java.util.Arrays;
+
+/**
+ * Assigns the horizontal coordinates of the nodes of a proper layering in linear time
+ * (Brandes, K&ouml;pf: Fast and Simple Horizontal Coordinate Assignment).
+ * For each combination of a vertical direction (down, up) and a horizontal direction (left, right)
+ * the nodes are aligned with a median neighbor into vertical blocks, which are then compacted
+ * horizontally. The four results are aligned to the narrowest of them and every node gets the
+ * average of its two median coordinates.
+ * Segments between two dummy nodes are kept straight, the segments crossing them are not aligned.
+ */
+final class BrandesKoepf {
+
+    private final int[][] levels;
+    private final int[] positions;
+    private final int[] nodeLevels;
+    private final int[] upOffsets;
+    private final int[] upNeighbors;
+    private final int[] downOffsets;
+    private final int[] downNeighbors;
+    // nodes from this number on are dummy nodes
+    private final int firstDummy;
+    private final double spacing;
+    private final int nodeCount;
+
+    // segments which cross an inner segment, in the up and down neighbor lists
+    private final boolean[] upConflicts;
+    private final boolean[] downConflicts;
+
+    // state of the current direction
+    private final int[] roots;
+    private final int[] aligns;
+    private final int[] sinks;
+    private final double[] shifts;
+    private final double[] xs;
+    private final boolean[] placed;
+    private final int[] members;
+    private final boolean[] waiting;
+    private final int[] stack;
+    private final int[] constraintOffsets;
+    private final int[] constraintTargets;
+    private final double[] constraintValues;
+    private final int[] classInDegrees;
+
+    /**
+     * @param levels the nodes of every level in their order
+     * @param positions the position of every node within its level
+     * @param nodeLevels the level of every node
+     * @param upOffsets where the neighbors of a node on the level above start in upNeighbors
+     * @param downOffsets where the neighbors of a node on the level below start in downNeighbors
+     * @param firstDummy the first dummy node, the nodes after it are dummy nodes as well
+     * @param spacing the minimal distance between two nodes of a level
+     */
+    BrandesKoepf(int[][] levels, int[] positions, int[] nodeLevels, int[] upOffsets, int[] upNeighbors,
+                 int[] downOffsets, int[] downNeighbors, int firstDummy, double spacing) {
+        this.levels = levels;
+        this.positions = positions;
+        this.nodeLevels = nodeLevels;
+        this.upOffsets = upOffsets;
+        this.upNeighbors = upNeighbors.clone();
+        this.downOffsets = downOffsets;
+        this.downNeighbors = downNeighbors.clone();
+        this.firstDummy = firstDummy;
+        this.spacing = spacing;
+        this.nodeCount = positions.length;
+        upConflicts = new boolean[upNeighbors.length];
+        downConflicts = new boolean[downNeighbors.length];
+        roots = new int[nodeCount];
+        aligns = new int[nodeCount];
+        sinks = new int[nodeCount];
+        shifts = new double[nodeCount];
+        xs = new double[nodeCount];
+        placed = new boolean[nodeCount];
+        members = new int[nodeCount];
+        waiting = new boolean[nodeCount];
+        stack = new int[nodeCount];
+        constraintOffsets = new int[nodeCount + 1];
+        constraintTargets = new int[nodeCount];
+        constraintValues = new double[nodeCount];
+        classInDegrees = new int[nodeCount];
+    }
+
+    /**
+     * @return the horizontal coordinate of every node
+     */
+    double[] assignCoordinates() {
+        sortNeighbors(upOffsets, this.upNeighbors, -1);
+        sortNeighbors(downOffsets, this.downNeighbors, 1);
+        markConflicts();
+
+        double[][] layouts = new double[4][];
+        int narrowest = 0;
+        double[] mins = new double[4];
+        double[] maxs = new double[4];
+        for (int direction = 0; direction < 4; direction++) {
+            boolean down = direction < 2;
+            boolean left = direction % 2 == 0;
+            layouts[direction] = layout(down, left);
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double x : layouts[direction]) {
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+            mins[direction] = min;
+            maxs[direction] = max;
+            if (max - min < maxs[narrowest] - mins[narrowest]) {
+                narrowest = direction;
+            }
+        }
+        // align the layouts to the left resp. right border of the narrowest one
+        for (int direction = 0; direction < 4; direction++) {
+            boolean left = direction % 2 == 0;
+            double shift = left ? mins[narrowest] - mins[direction] : maxs[narrowest] - maxs[direction];
+            for (int node = 0; node < nodeCount; node++) {
+                layouts[direction][node] += shift;
+            }
+        }
+
+        double[] result = new double[nodeCount];
+        double[] candidates = new double[4];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int direction = 0; direction < 4; direction++) {
+                candidates[direction] = layouts[direction][node];
+            }
+            Arrays.sort(candidates);
+            result[node] = (candidates[1] + candidates[2]) / 2;
+        }
+        // the average of the medians does not guarantee the spacing, push overlapping nodes apart
+        for (int[] level : levels) {
+            for (int k = 1; k < level.length; k++) {
+                result[level[k]] = Math.max(result[level[k]], result[level[k - 1]] + spacing);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the neighbors of every node by their positions, which are unique within a level.
+     */
+    private void sortNeighbors(int[] offsets, int[] neighbors, int levelOffset) {
+        for (int node = 0; node < nodeCount; node++) {
+            int from = offsets[node];
+            int to = offsets[node + 1];
+            if (to - from > 1) {
+                for (int i = from; i < to; i++) {
+                    neighbors[i] = positions[neighbors[i]];
+                }
+                Arrays.sort(neighbors, from, to);
+                int[] neighborLevel = levels[nodeLevels[node] + levelOffset];
+                for (int i = from; i < to; i++) {
+                    neighbors[i] = neighborLevel[neighbors[i]];
+                }
+            }
+        }
+    }
+
+    private boolean isInnerSegment(int upper, int lower) {
+        return upper >= firstDummy && lower >= firstDummy;
+    }
+
+    /**
+     * Marks the segments crossing an inner segment (type 1 conflicts), so that they are not aligned.
+     */
+    private void markConflicts() {
+        for (int level = 1; level < levels.length - 1; level++) {
+            int[] lowerLevel = levels[level + 1];
+            int upperSize = levels[level].length;
+            int k0 = 0;
+            int scanned = 0;
+            for (int l1 = 0; l1 < lowerLevel.length; l1++) {
+                int node = lowerLevel[l1];
+                int innerUpper = innerUpperNeighbor(node);
+                if (l1 == lowerLevel.length - 1 || innerUpper >= 0) {
+                    int k1 = innerUpper >= 0 ? positions[innerUpper] : upperSize - 1;
+                    for (; scanned <= l1; scanned++) {
+                        int lower = lowerLevel[scanned];
+                        for (int i = upOffsets[lower]; i < upOffsets[lower + 1]; i++) {
+                            int upper = upNeighbors[i];
+                            int k = positions[upper];
+                            if ((k < k0 || k > k1) && !isInnerSegment(upper, lower)) {
+                                upConflicts[i] = true;
+                                for (int j = downOffsets[upper]; j < downOffsets[upper + 1]; j++) {
+                                    if (downNeighbors[j] == lower) {
+                                        downConflicts[j] = true;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    k0 = k1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the upper neighbor of the dummy node if both form an inner segment, otherwise -1
+     */
+    private int innerUpperNeighbor(int node) {
+        if (node >= firstDummy) {
+            for (int i = upOffsets[node]; i < upOffsets[node + 1]; i++) {
+                if (upNeighbors[i] >= firstDummy) {
+                    return upNeighbors[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the node counted in the horizontal direction
+     */
+    private int position(int node, boolean left) {
+        return left ? positions[node] : levels[nodeLevels[node]].length - 1 - positions[node];
+    }
+
+    private double[] layout(boolean down, boolean left) {
+        alignVertically(down, left);
+        compactHorizontally(left);
+        double[] result = new double[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            double x = xs[roots[node]] + shifts[sinks[roots[node]]];
+            result[node] = left ? x : -x;
+        }
+        return result;
+    }
+
+    private void alignVertically(boolean down, boolean left) {
+        for (int node = 0; node < nodeCount; node++) {
+            roots[node] = node;
+            aligns[node] = node;
+        }
+        int[] offsets = down ? upOffsets : downOffsets;
+        int[] neighbors = down ? upNeighbors : downNeighbors;
+        boolean[] conflicts = down ? upConflicts : downConflicts;
+        for (int l = 0; l < levels.length; l++) {
+            int[] level = levels[down ? l : levels.length - 1 - l];
+            int r = -1;
+            for (int k = 0; k < level.length; k++) {
+                int node = level[left ? k : level.length - 1 - k];
+                int from = offsets[node];
+                int degree = offsets[node + 1] - from;
+                if (degree == 0) {
+                    continue;
+                }
+                // the lower and the upper median, in the horizontal direction
+                int lowerMedian = (degree - 1) / 2;
+                int upperMedian = degree / 2;
+                for (int m = lowerMedian; m <= upperMedian; m++) {
+                    int index = from + (left ? m : degree - 1 - m);
+                    int neighbor = neighbors[index];
+                    int neighborPosition = position(neighbor, left);
+                    if (aligns[node] == node && !conflicts[index] && r < neighborPosition) {
+                        aligns[neighbor] = node;
+                        roots[node] = roots[neighbor];
+                        aligns[node] = roots[node];
+                        r = neighborPosition;
+                    }
+                }
+            }
+        }
+    }
+
+    private void compactHorizontally(boolean left) {
+        for (int node = 0; node < nodeCount; node++) {
+            sinks[node] = node;
+            placed[node] = false;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (roots[node] == node && !placed[node]) {
+                placeBlock(node, left);
+            }
+        }
+        shiftClasses(left);
+    }
+
+    /**
+     * Places the block of the given root after the blocks to its left (in the horizontal direction)
+     * and relative to the sink of its class. The blocks on the way are placed with an explicit stack
+     * instead of recursion.
+     */
+    private void placeBlock(int start, boolean left) {
+        int depth = 0;
+        startBlock(start);
+        stack[0] = start;
+        while (depth >= 0) {
+            int root = stack[depth];
+            int member = members[root];
+            int predecessor = predecessor(member, left);
+            if (predecessor >= 0) {
+                int predecessorRoot = roots[predecessor];
+                if (!waiting[root] && !placed[predecessorRoot]) {
+                    waiting[root] = true;
+                    startBlock(predecessorRoot);
+                    stack[++depth] = predecessorRoot;
+                    continue;
+                }
+                waiting[root] = false;
+                if (sinks[root] == root) {
+                    sinks[root] = sinks[predecessorRoot];
+                }
+                if (sinks[root] == sinks[predecessorRoot]) {
+                    xs[root] = Math.max(xs[root], xs[predecessorRoot] + spacing);
+                }
+            }
+            members[root] = aligns[member];
+            if (members[root] == root) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Shifts the classes (the blocks with the same sink) against each other. Every pair of neighbors
+     * from different classes on a level gives a separation constraint from the class of the right
+     * node to the class of the left one, and the classes are shifted as little as possible in the
+     * topological order of these constraints. The paper computes the shifts while placing the
+     * blocks, which may let classes overlap (see the erratum by Brandes, Walter, Zink).
+     */
+    private void shiftClasses(boolean left) {
+        Arrays.fill(constraintOffsets, 0);
+        Arrays.fill(classInDegrees, 0);
+        for (int[] level : levels) {
+            for (int k = 1; k < level.length; k++) {
+                int leftClass = sinks[roots[level[left ? k - 1 : level.length - k]]];
+                int rightClass = sinks[roots[level[left ? k : level.length - 1 - k]]];
+                if (leftClass != rightClass) {
+                    constraintOffsets[rightClass + 1]++;
+                }
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            constraintOffsets[node + 1] += constraintOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(constraintOffsets, nodeCount);
+        for (int[] level : levels) {
+            for (int k = 1; k < level.length; k++) {
+                int leftNode = level[left ? k - 1 : level.length - k];
+                int rightNode = level[left ? k : level.length - 1 - k];
+                int leftClass = sinks[roots[leftNode]];
+                int rightClass = sinks[roots[rightNode]];
+                if (leftClass != rightClass) {
+                    int index = fill[rightClass]++;
+                    constraintTargets[index] = leftClass;
+                    constraintValues[index] = xs[roots[rightNode]] - xs[roots[leftNode]] - spacing;
+                    classInDegrees[leftClass]++;
+                }
+            }
+        }
+
+        int head = 0;
+        int tail = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            shifts[node] = Double.POSITIVE_INFINITY;
+            if (sinks[node] == node && classInDegrees[node] == 0) {
+                shifts[node] = 0;
+                stack[tail++] = node;
+            }
+        }
+        while (head < tail) {
+            int sink = stack[head++];
+            for (int i = constraintOffsets[sink]; i < constraintOffsets[sink + 1]; i++) {
+                int target = constraintTargets[i];
+                shifts[target] = Math.min(shifts[target], shifts[sink] + constraintValues[i]);
+                if (--classInDegrees[target] == 0) {
+                    stack[tail++] = target;
+                }
+            }
+        }
+    }
+
+    private void startBlock(int root) {
+        placed[root] = true;
+        xs[root] = 0;
+        members[root] = root;
+        waiting[root] = false;
+    }
+
+    /**
+     * @return the node before the given one on its level in the horizontal direction, or -1
+     */
+    private int predecessor(int node, boolean left) {
+        int[] level = levels[nodeLevels[node]];
+        int position = positions[node] + (left ? -1 : 1);
+        return position >= 0 && position < level.length ? level[position] : -1;
+    }
+}
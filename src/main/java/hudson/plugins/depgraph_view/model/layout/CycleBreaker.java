@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.layout;
+
+/**
+ * Finds the edges which have to be reversed to make a graph acyclic: the back edges of a depth first search.
+ * Vertices and edges are given by their numbers, the search uses an explicit stack, so that
+ * deep graphs do not overflow the stack of the calling thread.
+ */
+final class CycleBreaker {
+
+    private static final byte UNVISITED = 0;
+    private static final byte ON_STACK = 1;
+    private static final byte DONE = 2;
+
+    private CycleBreaker() {
+    }
+
+    /**
+     * Searches from the vertices in their order, following the out edges of a vertex in the given order.
+     * Self loops are never reversed, reversing them would not remove them.
+     *
+     * @param outEdges the numbers of the out edges of every vertex
+     * @param targets the target vertex of every edge
+     * @return for every edge whether it has to be reversed
+     */
+    static boolean[] findReversedEdges(int[][] outEdges, int[] targets) {
+        int vertexCount = outEdges.length;
+        boolean[] reversed = new boolean[targets.length];
+        byte[] states = new byte[vertexCount];
+        // the vertices on the stack and the index of the next out edge to follow for each of them
+        int[] stack = new int[vertexCount];
+        int[] nextEdges = new int[vertexCount];
+        for (int root = 0; root < vertexCount; root++) {
+            if (states[root] != UNVISITED) {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            nextEdges[0] = 0;
+            states[root] = ON_STACK;
+            while (depth >= 0) {
+                int vertex = stack[depth];
+                int[] edges = outEdges[vertex];
+                if (nextEdges[depth] == edges.length) {
+                    states[vertex] = DONE;
+                    depth--;
+                    continue;
+                }
+                int edge = edges[nextEdges[depth]++];
+                int target = targets[edge];
+                if (states[target] == ON_STACK) {
+                    if (target != vertex) {
+                        reversed[edge] = true;
+                    }
+                } else if (states[target] == UNVISITED) {
+                    depth++;
+                    stack[depth] = target;
+                    nextEdges[depth] = 0;
+                    states[target] = ON_STACK;
+                }
+            }
+        }
+        return reversed;
+    }
+}
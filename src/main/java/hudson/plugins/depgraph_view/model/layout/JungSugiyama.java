@@ -26,14 +26,14 @@ import edu.uci.ics.jung.algorithms.layout.AbstractLayout;
 import edu.uci.ics.jung.graph.Graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
 * Arranges the nodes with the Sugiyama Layout Algorithm.<br>
@@ -48,6 +48,10 @@ import java.util.Set;
 * Seems to work. Paramterize with spacing and orientation.
 *
 * C. Schanck (chris at schanck dot net)
+*
+* The vertices, edges and cell wrappers are numbered, their values are held in int arrays
+* and the levels are arrays of wrapper numbers, so that the sweeps neither allocate nor
+* walk linked lists.
 */
 
 public class JungSugiyama<V, E> extends AbstractLayout<V, E>
@@ -59,11 +63,22 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 
 	private static final int DEFAULT_VERTICAL_SPACING = 100;
 
+	private static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	private static final long DEFAULT_TIME_BUDGET_MILLIS = 10000;
+
 	public static enum Orientation
 	{
 		TOP, LEFT
 	};
 
+	/** the phases of the layout, see {@link #getPhaseNanos()}
+	*/
+	public static enum Phase
+	{
+		ACYCLIC, LEVELS, BALANCE, CROSSINGS, BARYCENTER
+	};
+
 
 	private boolean executed = false;
 
@@ -76,10 +91,42 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 
 	private int vertSpacing;
 
-	private Map<V, CellWrapper<V>> vertToWrapper = new HashMap<V, CellWrapper<V>>();
-
 	private Orientation orientation;
 
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+	private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+
+	private long deadline;
+
+	private boolean budgetExhausted = false;
+
+	private final Map<Phase, Long> phaseNanos = new EnumMap<Phase, Long>(Phase.class);
+
+	/** the vertices in the iteration order of the graph, a vertex is identified by its index
+	*/
+	private List<V> vertices;
+
+	private int[] edgeSources;
+
+	private int[] edgeTargets;
+
+	/** the out edges followed by the in edges of every vertex
+	*/
+	private int[][] neighborEdges;
+
+	/** the wrapper created for every vertex when filling the levels
+	*/
+	private int[] vertToWrapper;
+
+	/** the levels, each holding the numbers of its wrappers
+	*/
+	private int[][] levels;
+
+	private int[] levelSizes;
+
+	private Wrappers wrappers;
+
 	public JungSugiyama(Graph<V, E> g)
 	{
 		this(g, DEFAULT_ORIENTATION, DEFAULT_HORIZONTAL_SPACING, DEFAULT_VERTICAL_SPACING);
@@ -87,50 +134,68 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 
 	public JungSugiyama(Graph<V, E> g, Orientation orientation, int horzSpacing, int vertSpacing)
 	{
-		super(copyGraph(g));
+		super(g);
 		this.orientation = orientation;
 		this.horzSpacing = horzSpacing;
 		this.vertSpacing = vertSpacing;
 	}
 
-    private static <V,E> Graph<V,E> copyGraph(Graph<V,E> src) {
-        try {
-            @SuppressWarnings("unchecked")
-            Graph<V,E> dest = (Graph<V,E>) src.getClass().newInstance();
-            for (V v : src.getVertices())
-                dest.addVertex(v);
-
-            for (E e : src.getEdges())
-                dest.addEdge(e, src.getIncidentVertices(e));
-            return dest;
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
+	/**
+	* Limits the number of loops over all levels when solving the edge crosses and when moving
+	* the vertices to their barycenters.
+	*/
+	public void setMaxIterations(int maxIterations)
+	{
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	* Limits the time for the whole layout. Solving the edge crosses and moving to the barycenter stop
+	* after the level being processed when the time is up, keeping the positions reached so far.
+	*/
+	public void setTimeBudgetMillis(long timeBudgetMillis)
+	{
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	* @return whether the iterations or the time ran out before the positions converged
+	*/
+	public boolean isBudgetExhausted()
+	{
+		return budgetExhausted;
+	}
+
+	/**
+	* @return the nanoseconds spent in each phase of the last layout
+	*/
+	public Map<Phase, Long> getPhaseNanos()
+	{
+		return Collections.unmodifiableMap(phaseNanos);
+	}
 
 	public void initialize()
 	{
 		if (!executed)
 		{
-			List<List<CellWrapper<V>>> graphLevels = runSugiyama();
-			for (List<CellWrapper<V>> level : graphLevels)
+			runSugiyama();
+			for (int i = 0; i < levels.length; i++)
 			{
-				for (CellWrapper<V> wrapper : level)
+				for (int j = 0; j < levelSizes[i]; j++)
 				{
-					V vertex = wrapper.getVertexView();
+					int wrapper = levels[i][j];
+					V vertex = vertices.get(wrappers.vertex[wrapper]);
 
 					if (orientation.equals(Orientation.TOP))
 					{
-						double xCoordinate = 10.0 + (wrapper.gridPosition * horzSpacing);
-						double yCoordinate = 10.0 + (wrapper.level * vertSpacing);
+						double xCoordinate = 10.0 + (wrappers.gridPosition[wrapper] * horzSpacing);
+						double yCoordinate = 10.0 + (wrappers.level[wrapper] * vertSpacing);
 						setLocation(vertex, xCoordinate, yCoordinate);
 					}
 					else
 					{
-						double yCoordinate = 10.0 + (wrapper.gridPosition * vertSpacing);
-						double xCoordinate = 10.0 + (wrapper.level * horzSpacing);
+						double yCoordinate = 10.0 + (wrappers.gridPosition[wrapper] * vertSpacing);
+						double xCoordinate = 10.0 + (wrappers.level[wrapper] * horzSpacing);
 						setLocation(vertex, xCoordinate, yCoordinate);
 					}
 				}
@@ -150,172 +215,308 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 	* First of all, the Algorithm searches the roots from the
 	* Graph. Starting from this roots the Algorithm creates
 	* levels and stores them in the member <code>levels</code>.
-	* The Member levels contains LinkedList Objects and the LinkedList per level
-	* contains Cell Wrapper Objects. After that the Algorithm
+	* The Member levels contains an array of wrapper numbers per level.
+	* After that the Algorithm
 	* tries to solve the edge crosses from level to level and
 	* goes top down and bottom up. After minimization of the
 	* edge crosses the algorithm moves each node to its
 	* bary center.
 	*
 	*/
-	private List<List<CellWrapper<V>>> runSugiyama()
+	private void runSugiyama()
 	{
 		executed = true;
-		Set<V> vertexSet = new HashSet<V>(graph.getVertices());
-
-        makeGraphAcyclic();
-		List<List<CellWrapper<V>>> levels = fillLevels();
-        levels = balanceLevels(levels);
-		solveEdgeCrosses(levels);
-		moveToBarycenter(levels, vertexSet);
-		return levels;
+		long start = System.nanoTime();
+		deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.min(timeBudgetMillis, TimeUnit.DAYS.toMillis(1)));
+
+        indexGraph();
+		start = recordPhase(Phase.ACYCLIC, start);
+		fillLevels();
+		start = recordPhase(Phase.LEVELS, start);
+        balanceLevels();
+		start = recordPhase(Phase.BALANCE, start);
+		solveEdgeCrosses();
+		start = recordPhase(Phase.CROSSINGS, start);
+		moveToBarycenter();
+		recordPhase(Phase.BARYCENTER, start);
+	}
+
+	private long recordPhase(Phase phase, long start)
+	{
+		long end = System.nanoTime();
+		phaseNanos.put(phase, end - start);
+		return end;
 	}
 
-    private void makeGraphAcyclic() {
-        new AcyclicCalculator().run();
+	/**
+	* @return whether the time is up
+	*/
+	private boolean isOverBudget()
+	{
+		if (System.nanoTime() - deadline > 0)
+		{
+			budgetExhausted = true;
+			return true;
+		}
+		return false;
+	}
+
+    /**
+     * Numbers the vertices and edges of the graph and collects the neighbor edges of every vertex,
+     * the out edges followed by the in edges. The back edges of a depth first search are reversed
+     * to make the graph acyclic, see {@link CycleBreaker}, the graph itself is left untouched.
+     * A reversed edge counts after the edges which keep their direction, as if it was removed and
+     * added again.
+     */
+    private void indexGraph() {
+        vertices = new ArrayList<V>(graph.getVertices());
+        int vertexCount = vertices.size();
+        Map<V, Integer> vertexIndices = new HashMap<V, Integer>();
+        for (int i = 0; i < vertexCount; i++) {
+            vertexIndices.put(vertices.get(i), i);
+        }
+        Map<E, Integer> edgeIndices = new HashMap<E, Integer>();
+        edgeSources = new int[graph.getEdgeCount()];
+        edgeTargets = new int[graph.getEdgeCount()];
+        for (E edge : graph.getEdges()) {
+            int index = edgeIndices.size();
+            edgeIndices.put(edge, index);
+            edgeSources[index] = vertexIndices.get(graph.getSource(edge));
+            edgeTargets[index] = vertexIndices.get(graph.getDest(edge));
+        }
+        int[][] outEdges = new int[vertexCount][];
+        int[][] inEdges = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            V vertex = vertices.get(v);
+            outEdges[v] = indicesOf(graph.getOutEdges(vertex), edgeIndices);
+            inEdges[v] = indicesOf(graph.getInEdges(vertex), edgeIndices);
+        }
+
+        boolean[] reversed = CycleBreaker.findReversedEdges(outEdges, edgeTargets);
+        for (int edge = 0; edge < reversed.length; edge++) {
+            if (reversed[edge]) {
+                int source = edgeSources[edge];
+                edgeSources[edge] = edgeTargets[edge];
+                edgeTargets[edge] = source;
+            }
+        }
+        neighborEdges = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            int[] neighbors = new int[outEdges[v].length + inEdges[v].length];
+            int n = appendEdges(neighbors, 0, outEdges[v], reversed, false);
+            n = appendEdges(neighbors, n, inEdges[v], reversed, true);
+            n = appendEdges(neighbors, n, inEdges[v], reversed, false);
+            appendEdges(neighbors, n, outEdges[v], reversed, true);
+            neighborEdges[v] = neighbors;
+        }
+        wrappers = new Wrappers(2 * vertexCount);
     }
 
-    private List<List<CellWrapper<V>>> fillLevels() {
-        return fillLevels(0, copyGraph(graph), new LinkedList<List<CellWrapper<V>>>());
+    private static <E> int[] indicesOf(Collection<E> edges, Map<E, Integer> edgeIndices) {
+        int[] indices = new int[edges.size()];
+        int i = 0;
+        for (E edge : edges) {
+            indices[i++] = edgeIndices.get(edge);
+        }
+        return indices;
     }
 
-	/** Method fills the levels and stores them in the member levels.
+    /**
+     * Appends the edges which are reversed resp. not reversed.
+     *
+     * @return the new number of edges in neighbors
+     */
+    private static int appendEdges(int[] neighbors, int n, int[] edges, boolean[] reversed, boolean whichReversed) {
+        for (int edge : edges) {
+            if (reversed[edge] == whichReversed) {
+                neighbors[n++] = edge;
+            }
+        }
+        return n;
+    }
 
-	* Each level was represended by a LinkedList with Cell Wrapper objects.
-	* These LinkedLists are the elements in the <code>levels</code> LinkedList.
+	/** Method fills the levels and stores them in the member levels.
 	*
+	* The roots of the graph form the first level, the vertices which become roots once the
+	* previous levels are removed the following levels. That is the level of a vertex is the
+	* length of the longest path from a root to it, which is calculated in topological order
+	* by counting down the in degrees. Within a level the vertices keep their order.
+	* Self loops are ignored.
 	*/
-	private List<List<CellWrapper<V>>> fillLevels(int currentLevel, Graph<V, E> graph, List<List<CellWrapper<V>>> levels) {
-        if (graph.getVertices().isEmpty()) {
-            return levels;
+	private void fillLevels() {
+        int vertexCount = vertices.size();
+        int[] inDegrees = new int[vertexCount];
+        for (int edge = 0; edge < edgeSources.length; edge++) {
+            if (edgeSources[edge] != edgeTargets[edge]) {
+                inDegrees[edgeTargets[edge]]++;
+            }
         }
-        List<V> roots = searchRoots(graph);
-        if (levels.size() == currentLevel)
-            levels.add(currentLevel, new LinkedList<CellWrapper<V>>());
-        List<CellWrapper<V>> vecForTheCurrentLevel = levels.get(currentLevel);
-        for (V rootNode : roots) {
-            // Create a wrapper for the node
-            int numberForTheEntry = vecForTheCurrentLevel.size();
-            CellWrapper<V> wrapper = new CellWrapper<V>(currentLevel, numberForTheEntry, rootNode);
-
-            // put the Wrapper in the LevelLinkedList
-            vecForTheCurrentLevel.add(wrapper);
-            // concat the wrapper to the cell for an easy access
-            vertToWrapper.put(rootNode, wrapper);
-
-            graph.removeVertex(rootNode);
-        } // i.e root level
-        if (vecForTheCurrentLevel.size() > gridAreaSize) {
-            gridAreaSize = vecForTheCurrentLevel.size();
+        int[] vertexLevels = new int[vertexCount];
+        int[] queue = new int[vertexCount];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            if (inDegrees[v] == 0) {
+                queue[tail++] = v;
+            }
         }
-        fillLevels(currentLevel + 1, graph, levels); // 0 indicates level 0
-        return levels;
-	}
+        int numLevels = vertexCount == 0 ? 0 : 1;
+        while (head < tail) {
+            int vertex = queue[head++];
+            for (int edge : neighborEdges[vertex]) {
+                int target = edgeTargets[edge];
+                if (edgeSources[edge] == vertex && target != vertex) {
+                    vertexLevels[target] = Math.max(vertexLevels[target], vertexLevels[vertex] + 1);
+                    numLevels = Math.max(numLevels, vertexLevels[target] + 1);
+                    if (--inDegrees[target] == 0) {
+                        queue[tail++] = target;
+                    }
+                }
+            }
+        }
+        // vertices on a cycle, which indexGraph leaves none of, stay on the level of their latest predecessor
 
-    /** Searches all Roots for the current Graph
-     * First the method marks any Node as not visited.
-     * Than calls searchRoots(MyGraphCell) for each
-     * not visited Cell.
-     * The Roots are stored in the LinkedList named roots
-     *
-     * @return returns a LinkedList with the roots
-     */
-    private List<V> searchRoots(Graph<V,E> graph)
-    {
-        List<V> roots = new LinkedList<V>();
-        // first: mark all as not visited
-        // it is assumed that vertex are not visited
-        for (V vert : graph.getVertices())
-        {
-            int in_degree = graph.inDegree(vert);
-            if (in_degree == 0) {
-                roots.add(vert);
+        levelSizes = new int[numLevels];
+        for (int v = 0; v < vertexCount; v++) {
+            levelSizes[vertexLevels[v]]++;
+        }
+        levels = new int[numLevels][];
+        for (int i = 0; i < numLevels; i++) {
+            levels[i] = new int[levelSizes[i]];
+            if (levelSizes[i] > gridAreaSize) {
+                gridAreaSize = levelSizes[i];
             }
+            levelSizes[i] = 0;
         }
-        return roots;
-    }
+        vertToWrapper = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            int currentLevel = vertexLevels[v];
+            levels[currentLevel][levelSizes[currentLevel]] = v;
+            levelSizes[currentLevel]++;
+        }
+        // wrap the vertices level by level
+        for (int i = 0; i < numLevels; i++) {
+            for (int j = 0; j < levelSizes[i]; j++) {
+                int vertex = levels[i][j];
+                int wrapper = wrappers.add(i, j, vertex);
+                levels[i][j] = wrapper;
+                // concat the wrapper to the cell for an easy access
+                vertToWrapper[vertex] = wrapper;
+            }
+        }
+	}
 
-    private List<List<CellWrapper<V>>> balanceLevels(List<List<CellWrapper<V>>> levels) {
-        Map<V, Integer> maxLevels = new HashMap<V, Integer>();
-        Map<V, Integer> minLevels = new HashMap<V, Integer>();
-        List<CellWrapper<V>> verticesToAdd = new LinkedList<CellWrapper<V>>();
-        List<Integer> sizes = new ArrayList<Integer>(levels.size());
-        for (List<CellWrapper<V>> levelList : levels) {
-            for (CellWrapper<V> node : levelList) {
-                int minLevel = findMinPossibleLevel(node);
-                int maxLevel = findMaxPossibleLevel(node, levels.size());
+    /**
+     * Moves the vertices which could be on several levels to the smallest of them and wraps
+     * all vertices again. Note that {@link #vertToWrapper} keeps referring to the wrappers
+     * created when filling the levels.
+     */
+    private void balanceLevels() {
+        int numLevels = levels.length;
+        int vertexCount = vertices.size();
+        int[] verticesToAdd = new int[vertexCount];
+        int[] minLevels = new int[vertexCount];
+        int[] maxLevels = new int[vertexCount];
+        int addCount = 0;
+        for (int i = 0; i < numLevels; i++) {
+            int[] level = levels[i];
+            int kept = 0;
+            for (int j = 0; j < levelSizes[i]; j++) {
+                int wrapper = level[j];
+                int vertex = wrappers.vertex[wrapper];
+                int minLevel = findMinPossibleLevel(vertex);
+                int maxLevel = findMaxPossibleLevel(vertex, numLevels);
                 if (minLevel != maxLevel) {
-                    maxLevels.put(node.getVertexView(), maxLevel);
-                    minLevels.put(node.getVertexView(), minLevel);
-                    verticesToAdd.add(node);
+                    minLevels[addCount] = minLevel;
+                    maxLevels[addCount] = maxLevel;
+                    verticesToAdd[addCount++] = wrapper;
+                } else {
+                    level[kept++] = wrapper;
                 }
             }
-            levelList.removeAll(verticesToAdd);
-            sizes.add(levelList.size());
+            levelSizes[i] = kept;
         }
-        for (CellWrapper<V> vertex : verticesToAdd) {
+        for (int k = 0; k < addCount; k++) {
             int minSize = Integer.MAX_VALUE;
             int minIndex = -1;
-            for (int i = minLevels.get(vertex.getVertexView()); i <= maxLevels.get(vertex.getVertexView()); i++) {
-                if (sizes.get(i) < minSize) {
-                    minSize = sizes.get(i);
+            for (int i = minLevels[k]; i <= maxLevels[k]; i++) {
+                if (levelSizes[i] < minSize) {
+                    minSize = levelSizes[i];
                     minIndex = i;
                 }
             }
-            levels.get(minIndex).add(vertex);
-            sizes.set(minIndex, sizes.get(minIndex) + 1);
+            if (levelSizes[minIndex] == levels[minIndex].length) {
+                levels[minIndex] = Arrays.copyOf(levels[minIndex], Math.max(4, 2 * levelSizes[minIndex]));
+            }
+            levels[minIndex][levelSizes[minIndex]++] = verticesToAdd[k];
         }
-        List<List<CellWrapper<V>>> newLevels = new LinkedList<List<CellWrapper<V>>>();
-        for (List<CellWrapper<V>> level : levels) {
-            LinkedList<CellWrapper<V>> newLevel = new LinkedList<CellWrapper<V>>();
-            for (CellWrapper<V> cellWrapper : level) {
-                newLevel.add(new CellWrapper<V>(newLevels.size(), newLevel.size(), cellWrapper.getVertexView()));
+        for (int i = 0; i < numLevels; i++) {
+            int[] newLevel = new int[levelSizes[i]];
+            for (int j = 0; j < levelSizes[i]; j++) {
+                newLevel[j] = wrappers.add(i, j, wrappers.vertex[levels[i][j]]);
             }
-            newLevels.add(newLevel);
+            levels[i] = newLevel;
         }
-        return newLevels;
     }
 
-    private int findMaxPossibleLevel(CellWrapper<V> node, int numLevels) {
-        V vertex = node.getVertexView();
+    private int findMaxPossibleLevel(int vertex, int numLevels) {
         int maxLevel = numLevels - 1;
-        for (V successor : graph.getSuccessors(vertex)) {
-            int level = vertToWrapper.get(successor).getLevel();
-            maxLevel = Math.min(level - 1, maxLevel);
+        for (int edge : neighborEdges[vertex]) {
+            int successor = edgeTargets[edge];
+            if (edgeSources[edge] == vertex && successor != vertex) {
+                int level = wrappers.level[vertToWrapper[successor]];
+                maxLevel = Math.min(level - 1, maxLevel);
+            }
         }
         return maxLevel;
     }
 
-    private int findMinPossibleLevel(CellWrapper<V> node) {
-        V vertex = node.getVertexView();
-        Collection<V> predecessors = graph.getPredecessors(vertex);
+    private int findMinPossibleLevel(int vertex) {
         int minLevel = 0;
-        for (V predecessor : predecessors) {
-            int level = vertToWrapper.get(predecessor).getLevel();
-            minLevel = Math.max(level + 1, minLevel);
+        for (int edge : neighborEdges[vertex]) {
+            int predecessor = edgeSources[edge];
+            if (edgeTargets[edge] == vertex && predecessor != vertex) {
+                int level = wrappers.level[vertToWrapper[predecessor]];
+                minLevel = Math.max(level + 1, minLevel);
+            }
         }
         return minLevel;
     }
 
-    private void solveEdgeCrosses(List<List<CellWrapper<V>>> levels)
+    private void solveEdgeCrosses()
 	{
+		int[] levelSortBefore = new int[maxLevelSize()];
+		int[] sortBuffer = new int[levelSortBefore.length];
 		int movementsCurrentLoop = -1;
 
-		while (movementsCurrentLoop != 0)
+		for (int iteration = 0; movementsCurrentLoop != 0; iteration++)
 		{
+			if (iteration == maxIterations)
+			{
+				budgetExhausted = true;
+				return;
+			}
 			// reset the movements per loop count
 			movementsCurrentLoop = 0;
 
 			// top down
-			for (int i = 0; i < levels.size() - 1; i++)
+			for (int i = 0; i < levels.length - 1; i++)
 			{
-				movementsCurrentLoop += solveEdgeCrosses(true, levels, i);
+				if (isOverBudget())
+				{
+					return;
+				}
+				movementsCurrentLoop += solveEdgeCrosses(true, i, levelSortBefore, sortBuffer);
 			}
 
 			// bottom up
-			for (int i = levels.size() - 1; i >= 1; i--)
+			for (int i = levels.length - 1; i >= 1; i--)
 			{
-				movementsCurrentLoop += solveEdgeCrosses(false, levels, i);
+				if (isOverBudget())
+				{
+					return;
+				}
+				movementsCurrentLoop += solveEdgeCrosses(false, i, levelSortBefore, sortBuffer);
 			}
 		}
 	}
@@ -323,60 +524,59 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 	/**
 	* @return movements
 	*/
-	private int solveEdgeCrosses(boolean down, List<List<CellWrapper<V>>> levels, int levelIndex)
+	private int solveEdgeCrosses(boolean down, int levelIndex, int[] levelSortBefore, int[] sortBuffer)
 	{
 		// Get the current level
-		List<CellWrapper<V>> currentLevel = levels.get(levelIndex);
+		int[] currentLevel = levels[levelIndex];
+		int size = levelSizes[levelIndex];
 		int movements = 0;
 
 		// restore the old sort
-		CellWrapper<?>[] levelSortBefore = currentLevel.toArray(new CellWrapper [] {});
+		System.arraycopy(currentLevel, 0, levelSortBefore, 0, size);
 
 		// new sort
-		Collections.sort(currentLevel);
+		wrappers.sort(currentLevel, size, sortBuffer);
 
 		// test for movements
-		for (int j = 0; j < levelSortBefore.length; j++)
+		for (int j = 0; j < size; j++)
 		{
-			if (levelSortBefore[j].getEdgeCrossesIndicator() !=
-                    currentLevel.get(j).getEdgeCrossesIndicator())
+			if (wrappers.getEdgeCrossesIndicator(levelSortBefore[j]) !=
+                    wrappers.getEdgeCrossesIndicator(currentLevel[j]))
 			{
 				movements++;
 			}
 		}
-		// Collections Sort sorts the highest value to the first value
-		for (int j = currentLevel.size() - 1; j >= 0; j--)
+		// the sort puts the highest value first
+		for (int j = size - 1; j >= 0; j--)
 		{
-			CellWrapper<V> sourceWrapper = currentLevel.get(j);
+			int sourceWrapper = currentLevel[j];
 
-			V sourceView = sourceWrapper.getVertexView();
+			int sourceView = wrappers.vertex[sourceWrapper];
 
-			Collection<E> edgeList = getNeighborEdges(sourceView);
-
-			for (E edge : edgeList)
+			for (int edge : neighborEdges[sourceView])
 			{
 				// if it is a forward edge follow it
-				V targetView = null;
-				if (down && sourceView == graph.getSource(edge))
+				int targetView = -1;
+				if (down && sourceView == edgeSources[edge])
 				{
-					targetView = graph.getDest(edge);
+					targetView = edgeTargets[edge];
 				}
-				if (!down && sourceView == graph.getDest(edge))
+				if (!down && sourceView == edgeTargets[edge])
 				{
-					targetView = graph.getSource(edge);
+					targetView = edgeSources[edge];
 				}
-				if (targetView != null)
+				if (targetView >= 0)
 				{
-					CellWrapper<V> targetWrapper = vertToWrapper.get(targetView);
+					int targetWrapper = vertToWrapper[targetView];
 
 					// do it only if the edge is a forward edge to a deeper level
-					if (down && targetWrapper != null && targetWrapper.getLevel() > levelIndex)
+					if (down && wrappers.level[targetWrapper] > levelIndex)
 					{
-						targetWrapper.addToEdgeCrossesIndicator(sourceWrapper.getEdgeCrossesIndicator());
+						wrappers.addToEdgeCrossesIndicator(targetWrapper, wrappers.getEdgeCrossesIndicator(sourceWrapper));
 					}
-					if (!down && targetWrapper != null && targetWrapper.getLevel() < levelIndex)
+					if (!down && wrappers.level[targetWrapper] < levelIndex)
 					{
-						targetWrapper.addToEdgeCrossesIndicator(sourceWrapper.getEdgeCrossesIndicator());
+						wrappers.addToEdgeCrossesIndicator(targetWrapper, wrappers.getEdgeCrossesIndicator(sourceWrapper));
 					}
 				}
 			}
@@ -384,128 +584,111 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 		return movements;
 	}
 
-	private void moveToBarycenter(List<List<CellWrapper<V>>> levels, Set<V> vertexSet)
+	private void moveToBarycenter()
 	{
-		for (V v : vertexSet)
+		for (int v = 0; v < vertices.size(); v++)
 		{
 
-			CellWrapper<V> currentwrapper = vertToWrapper.get(v);
-
-			Collection<E> edgeList = getNeighborEdges(v);
+			int currentwrapper = vertToWrapper[v];
 
-			for (E edge : edgeList)
+			for (int edge : neighborEdges[v])
 			{
 				// i have to find neigbhor vertex
-				V neighborVertex = null;
-
-				if (v == graph.getSource(edge))
+				int neighborVertex = -1;
+				if (v == edgeSources[edge])
 				{
-					neighborVertex = graph.getDest(edge);
+					neighborVertex = edgeTargets[edge];
 				}
 				else
 				{
-					if (v == graph.getDest(edge))
+					if (v == edgeTargets[edge])
 					{
-						neighborVertex = graph.getSource(edge);
+						neighborVertex = edgeSources[edge];
 					}
 				}
 
-				if ((neighborVertex != null) && (neighborVertex != v))
+				if ((neighborVertex >= 0) && (neighborVertex != v))
 				{
 
-					CellWrapper<V> neighborWrapper = vertToWrapper.get(neighborVertex);
+					int neighborWrapper = vertToWrapper[neighborVertex];
 
-					if (!(currentwrapper == null || neighborWrapper == null || currentwrapper.level == neighborWrapper.level))
+					if (wrappers.level[currentwrapper] != wrappers.level[neighborWrapper])
 					{
-						currentwrapper.priority++;
+						wrappers.priority[currentwrapper]++;
 					}
 				}
 			}
 		}
-		for (List<CellWrapper<V>> level : levels)
+		for (int i = 0; i < levels.length; i++)
 		{
-			int pos = 0;
-			for (CellWrapper<V> wrapper : level)
+			for (int pos = 0; pos < levelSizes[i]; pos++)
 			{
 				// calculate the initial Grid Positions 1, 2, 3, .... per Level
-				wrapper.setGridPosition(pos++);
+				wrappers.gridPosition[levels[i][pos]] = pos;
 			}
 		}
 
+		// the grid positions are valid after every move, so the positions reached so far are kept when the budget is exhausted
 		int movementsCurrentLoop = -1;
 
-		while (movementsCurrentLoop != 0)
+		for (int iteration = 0; movementsCurrentLoop != 0; iteration++)
 		{
+			if (iteration == maxIterations)
+			{
+				budgetExhausted = true;
+				return;
+			}
 			// reset movements
 			movementsCurrentLoop = 0;
 
 			// top down
-			for (int i = 1; i < levels.size(); i++)
+			for (int i = 1; i < levels.length; i++)
 			{
-				movementsCurrentLoop += moveToBarycenter(levels, i);
+				if (isOverBudget())
+				{
+					return;
+				}
+				movementsCurrentLoop += moveToBarycenter(i);
 			}
 			// bottom up
-			for (int i = levels.size() - 1; i >= 0; i--)
+			for (int i = levels.length - 1; i >= 0; i--)
 			{
-				movementsCurrentLoop += moveToBarycenter(levels, i);
+				if (isOverBudget())
+				{
+					return;
+				}
+				movementsCurrentLoop += moveToBarycenter(i);
 			}
 		}
 	}
 
-	private Collection<E> getNeighborEdges(V v)
-	{
-		Collection<E> outEdges = graph.getOutEdges(v);
-		Collection<E> inEdges = graph.getInEdges(v);
-		LinkedList<E> edgeList = new LinkedList<E>();
-		edgeList.addAll(outEdges);
-		edgeList.addAll(inEdges);
-		return edgeList;
-	}
-
-	private int moveToBarycenter(List<List<CellWrapper<V>>> levels, int levelIndex)
+	private int moveToBarycenter(int levelIndex)
 	{
 		// Counter for the movements
 		int movements = 0;
 
 		// Get the current level
-		List<CellWrapper<V>> currentLevel = levels.get(levelIndex);
+		int[] currentLevel = levels[levelIndex];
 
-		for (int currentIndexInTheLevel = 0; currentIndexInTheLevel < currentLevel.size(); currentIndexInTheLevel++)
+		for (int currentIndexInTheLevel = 0; currentIndexInTheLevel < levelSizes[levelIndex]; currentIndexInTheLevel++)
 		{
-			CellWrapper<V> sourceWrapper = currentLevel.get(currentIndexInTheLevel);
+			int sourceWrapper = currentLevel[currentIndexInTheLevel];
 
 			float gridPositionsSum = 0;
 			float countNodes = 0;
 
-			V vertexView = sourceWrapper.getVertexView();
+			int vertexView = wrappers.vertex[sourceWrapper];
 
-			Collection<E> edgeList = getNeighborEdges(vertexView);
-
-			for (E edge : edgeList)
+			for (int edge : neighborEdges[vertexView])
 			{
-				// if it is a forward edge follow it
-				//Object neighborPort = null;
-				V neighborVertex = null;
-				if (vertexView == graph.getSource(edge))
-				{
-					neighborVertex = graph.getDest(edge);
-				}
-				else
-				{
-					if (vertexView == graph.getSource(edge))
-					{
-						neighborVertex = graph.getDest(edge);
-					}
-				}
-
-				if (neighborVertex != null)
+				// only forward edges are followed
+				if (vertexView == edgeSources[edge])
 				{
+					int targetWrapper = vertToWrapper[edgeTargets[edge]];
 
-					CellWrapper<V> targetWrapper = vertToWrapper.get(neighborVertex);
-
-					if (!(targetWrapper == sourceWrapper) || targetWrapper.getLevel() == levelIndex)
+					if (targetWrapper != sourceWrapper || wrappers.level[targetWrapper] == levelIndex)
 					{
-						gridPositionsSum += targetWrapper.getGridPosition();
+						gridPositionsSum += wrappers.gridPosition[targetWrapper];
 						countNodes++;
 					}
 				}
@@ -515,13 +698,13 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 			{
 				float tmp = (gridPositionsSum / countNodes);
 				int newGridPosition = Math.round(tmp);
-				boolean toRight = (newGridPosition > sourceWrapper.getGridPosition());
+				boolean toRight = (newGridPosition > wrappers.gridPosition[sourceWrapper]);
 
 				boolean moved = true;
 
-				while (newGridPosition != sourceWrapper.getGridPosition() && moved)
+				while (newGridPosition != wrappers.gridPosition[sourceWrapper] && moved)
 				{
-					moved = move(toRight, currentLevel, currentIndexInTheLevel, sourceWrapper.getPriority());
+					moved = move(toRight, levelIndex, currentIndexInTheLevel, wrappers.priority[sourceWrapper]);
 					if (moved)
 					{
 						movements++;
@@ -532,115 +715,116 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 		return movements;
 	}
 
-	/**@param toRight <tt>true</tt> = try to move the currentWrapper to right; <tt>false</tt> = try to move the currentWrapper to left;
-	* @param currentLevel LinkedList which contains the CellWrappers for the current level
+	/**
+	* Moves the wrapper one grid position, pushing the neighbors on its way which have a lower priority.
 	*
-	* @return The free GridPosition or -1 is position is not free.
+	* @param toRight <tt>true</tt> = try to move the currentWrapper to right; <tt>false</tt> = try to move the currentWrapper to left;
+	*
+	* @return whether the wrapper was moved
 	*/
-	private boolean move(boolean toRight, List<CellWrapper<V>> currentLevel, int currentIndexInTheLevel, int currentPriority)
+	private boolean move(boolean toRight, int levelIndex, int currentIndexInTheLevel, int currentPriority)
 	{
-		CellWrapper<V> currentWrapper = currentLevel.get(currentIndexInTheLevel);
-
-		boolean moved = false;
-		int neighborIndexInTheLevel = currentIndexInTheLevel + (toRight ? 1 : -1);
-		int newGridPosition = currentWrapper.getGridPosition() + (toRight ? 1 : -1);
-
-		if (0 > newGridPosition || newGridPosition >= gridAreaSize)
-		{
-			return false;
-		}
+		int[] currentLevel = levels[levelIndex];
+		int step = toRight ? 1 : -1;
 
-		// if the node is the first or the last we can move
-		if (toRight && currentIndexInTheLevel == currentLevel.size() - 1 || !toRight && currentIndexInTheLevel == 0)
-		{
-			moved = true;
-		}
-		else
+		// find the last neighbor which has to be pushed
+		int lastIndex = currentIndexInTheLevel;
+		while (true)
 		{
+			int newGridPosition = wrappers.gridPosition[currentLevel[lastIndex]] + step;
+			if (0 > newGridPosition || newGridPosition >= gridAreaSize)
+			{
+				return false;
+			}
+			// if the node is the first or the last we can move
+			if (toRight && lastIndex == levelSizes[levelIndex] - 1 || !toRight && lastIndex == 0)
+			{
+				break;
+			}
 			// else get the neighbor and ask his gridposition
 			// if he has the requested new grid position
 			// check the priority
-
-			CellWrapper neighborWrapper = (CellWrapper) currentLevel.get(neighborIndexInTheLevel);
-
-			int neighborPriority = neighborWrapper.getPriority();
-
-			if (neighborWrapper.getGridPosition() == newGridPosition)
+			int neighborWrapper = currentLevel[lastIndex + step];
+			if (wrappers.gridPosition[neighborWrapper] != newGridPosition)
 			{
-				if (neighborPriority >= currentPriority)
-				{
-					return false;
-				}
-				else
-				{
-					moved = move(toRight, currentLevel, neighborIndexInTheLevel, currentPriority);
-				}
+				break;
 			}
-			else
+			if (wrappers.priority[neighborWrapper] >= currentPriority)
 			{
-				moved = true;
+				return false;
 			}
+			lastIndex += step;
+		}
+
+		for (int i = currentIndexInTheLevel; i != lastIndex + step; i += step)
+		{
+			wrappers.gridPosition[currentLevel[i]] += step;
 		}
+		return true;
+	}
 
-		if (moved)
+	private int maxLevelSize()
+	{
+		int max = 0;
+		for (int size : levelSizes)
 		{
-			currentWrapper.setGridPosition(newGridPosition);
+			max = Math.max(max, size);
 		}
-		return moved;
+		return max;
 	}
 
-	//---------------cell wrapper-----------------
-	/** cell wrapper contains all values
-	* for one node
+	//---------------cell wrappers-----------------
+	/** the values of all cell wrappers, one entry per wrapper in each array
 	*/
-	class CellWrapper<VV> implements Comparable<CellWrapper<VV>>
+	private static final class Wrappers
 	{
 		/** sum value for edge Crosses
 		*/
-		private double edgeCrossesIndicator = 0;
+		private final double[] edgeCrossesIndicator;
 
 		/** counter for additions to the edgeCrossesIndicator
 		*/
-		private int additions = 0;
+		private final int[] additions;
 
 		/** the vertical level where the cell wrapper is inserted
 		*/
-		private int level = 0;
+		private final int[] level;
 
 		/** current position in the grid
 		*/
-		private int gridPosition = 0;
+		private final int[] gridPosition;
 
 		/** priority for movements to the barycenter
 		*/
-		private int priority = 0;
+		private final int[] priority;
 
-		/** reference to the wrapped cell
+		/** the wrapped vertex
 		*/
-		private VV wrappedVertex = null;
+		private final int[] vertex;
 
-		private String vertex_name = "";
+		private int count = 0;
 
-		// CellWrapper constructor
-		CellWrapper(int level, double edgeCrossesIndicator, VV vertex)
+		Wrappers(int capacity)
 		{
-			this.level = level;
-			this.edgeCrossesIndicator = edgeCrossesIndicator;
-			this.wrappedVertex = vertex;
-			vertex_name = vertex.toString();
-			additions++;
+			edgeCrossesIndicator = new double[capacity];
+			additions = new int[capacity];
+			level = new int[capacity];
+			gridPosition = new int[capacity];
+			priority = new int[capacity];
+			vertex = new int[capacity];
 		}
 
-		public String toString()
-		{
-			return vertex_name + "," + level + "," + gridPosition + "," + priority + "," + edgeCrossesIndicator + "," + additions;
-		}
-
-		/** returns the wrapped Vertex
+		/**
+		* @return the number of the new wrapper
 		*/
-		VV getVertexView()
+		int add(int level, double edgeCrossesIndicator, int vertex)
 		{
-			return wrappedVertex;
+			int wrapper = count++;
+			this.level[wrapper] = level;
+			this.edgeCrossesIndicator[wrapper] = edgeCrossesIndicator;
+			this.vertex[wrapper] = vertex;
+			additions[wrapper] = 1;
+			return wrapper;
 		}
 
 		/** retruns the average value for the edge crosses indicator
@@ -648,107 +832,77 @@ public class JungSugiyama<V, E> extends AbstractLayout<V, E>
 		* for the wrapped cell
 		*
 		*/
-
-		double getEdgeCrossesIndicator()
+		double getEdgeCrossesIndicator(int wrapper)
 		{
-			if (additions == 0)
+			if (additions[wrapper] == 0)
 				return 0;
-			return edgeCrossesIndicator / additions;
+			return edgeCrossesIndicator[wrapper] / additions[wrapper];
 		}
 
 		/** Addes a value to the edge crosses indicator
 		* for the wrapped cell
 		*
 		*/
-		void addToEdgeCrossesIndicator(double addValue)
-		{
-			edgeCrossesIndicator += addValue;
-			additions++;
-		}
-
-		/** gets the level of the wrapped cell
-		*/
-		int getLevel()
+		void addToEdgeCrossesIndicator(int wrapper, double addValue)
 		{
-			return level;
+			edgeCrossesIndicator[wrapper] += addValue;
+			additions[wrapper]++;
 		}
 
-		/** gets the grid position for the wrapped cell
+		/**
+		* Orders the wrappers by their edge crosses indicator, the highest first.
 		*/
-		int getGridPosition()
+		int compare(int wrapper, int other)
 		{
-			return gridPosition;
-		}
+			if (getEdgeCrossesIndicator(other) == getEdgeCrossesIndicator(wrapper))
+				return 0;
 
-		/** Sets the grid position for the wrapped cell
-		*/
-		void setGridPosition(int pos)
-		{
-			this.gridPosition = pos;
-		}
+			double compareValue = getEdgeCrossesIndicator(other) - getEdgeCrossesIndicator(wrapper);
 
-		/** returns the priority of this cell wrapper.
-		*
-		* The priority was used by moving the cell to its
-		* barycenter.
-		*/
-		int getPriority()
-		{
-			return priority;
+			return (int) (compareValue * 1000);
 		}
 
 		/**
-		* @see java.lang.Comparable#compareTo(Object)
+		* Stable merge sort of the first <code>size</code> wrappers of the level
 		*/
-		public int compareTo(CellWrapper<VV> compare)
+		void sort(int[] level, int size, int[] buffer)
 		{
-			if (compare.getEdgeCrossesIndicator() == this.getEdgeCrossesIndicator())
-				return 0;
-
-			double compareValue = compare.getEdgeCrossesIndicator() - this.getEdgeCrossesIndicator();
-
-			return (int) (compareValue * 1000);
-
+			for (int width = 1; width < size; width *= 2)
+			{
+				for (int start = 0; start < size - width; start += 2 * width)
+				{
+					int middle = start + width;
+					int end = Math.min(start + 2 * width, size);
+					System.arraycopy(level, start, buffer, start, end - start);
+					int left = start;
+					int right = middle;
+					int out = start;
+					while (left < middle && right < end)
+					{
+						level[out++] = compare(buffer[right], buffer[left]) < 0 ? buffer[right++] : buffer[left++];
+					}
+					while (left < middle)
+					{
+						level[out++] = buffer[left++];
+					}
+					while (right < end)
+					{
+						level[out++] = buffer[right++];
+					}
+				}
+			}
 		}
 	}
 
 	//--------------------------------------------
 	public void reset()
 	{
-		vertToWrapper.clear();
+		vertToWrapper = null;
+		levels = null;
+		wrappers = null;
+		gridAreaSize = Integer.MIN_VALUE;
+		budgetExhausted = false;
+		phaseNanos.clear();
 		executed = false;
 	}
-
-    private class AcyclicCalculator {
-        private Set<V> onStack = new HashSet<V>();
-        private Set<V> visited = new HashSet<V>();
-        public AcyclicCalculator() {
-        }
-
-        private void dfs(V vertex) {
-            if (visited.contains(vertex)) {
-                return;
-            }
-
-            visited.add(vertex);
-            onStack.add(vertex);
-
-            for (E edge: graph.getOutEdges(vertex)) {
-                V target = graph.getDest(edge);
-                if (onStack.contains(target)) {
-                    graph.removeEdge(edge);
-                    graph.addEdge(edge, target, vertex);
-                } else {
-                    dfs(target);
-                }
-            }
-            onStack.remove(vertex);
-        }
-
-        public void run() {
-            for (V vertex : graph.getVertices()) {
-                dfs(vertex);
-            }
-        }
-    }
 }
@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import edu.uci.ics.jung.algorithms.layout.AbstractLayout;
+import edu.uci.ics.jung.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layered layout of a directed graph in the spirit of Sugiyama, which minimizes the edge crossings
+ * by counting them.
+ * <ol>
+ * <li>The back edges of a depth first search are reversed, see {@link CycleBreaker}.</li>
+ * <li>Every vertex is put on the level of the longest path from a root to it. Edges spanning
+ * several levels get a dummy node on each level in between.</li>
+ * <li>The levels are sorted by the median of the positions of the neighbors on the previous level,
+ * sweeping down and up. A new order of a level is only kept if it does not increase the crossings
+ * with its neighbor levels, and the order with the fewest crossings of all sweeps wins.
+ * The crossings between two levels are counted in O(E log V) with an accumulator tree
+ * (Barth, J&uuml;nger, Mutzel: Simple and Efficient Bilayer Cross Counting).</li>
+ * </ol>
+ * The vertices get their horizontal coordinates from {@link BrandesKoepf}, which keeps the dummy nodes
+ * of long edges in straight lines and places vertices near the medians of their neighbors.
+ */
+public class LayeredLayout<V, E> extends AbstractLayout<V, E> {
+
+    private static final int DEFAULT_HORIZONTAL_SPACING = 200;
+
+    private static final int DEFAULT_VERTICAL_SPACING = 100;
+
+    private static final int DEFAULT_MAX_SWEEPS = 24;
+
+    private static final long DEFAULT_TIME_BUDGET_MILLIS = 10000;
+
+    // the ordering stops after this many sweeps without fewer crossings
+    private static final int MAX_SWEEPS_WITHOUT_IMPROVEMENT = 4;
+
+    private final int horzSpacing;
+
+    private final int vertSpacing;
+
+    private int maxSweeps = DEFAULT_MAX_SWEEPS;
+
+    private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+
+    private boolean executed = false;
+
+    private boolean budgetExhausted = false;
+
+    private long crossings = -1;
+
+    private List<V> vertices;
+
+    // the vertices are the first nodes, the dummy nodes of long edges follow
+    private int nodeCount;
+
+    private int[] nodeLevels;
+
+    private int[] upOffsets;
+    private int[] upNeighbors;
+    private int[] downOffsets;
+    private int[] downNeighbors;
+
+    // the nodes of every level in their order and the position of every node within its level
+    private int[][] levels;
+    private int[] positions;
+
+    // buffers reused by the sweeps
+    private double[] medians;
+    private double[] barycenters;
+    private int[] sortBuffer;
+    private int[] neighborPositions;
+    private int[] savedLevel;
+    private int[] crossingSequence;
+    private int[] accumulatorTree;
+
+    public LayeredLayout(Graph<V, E> graph) {
+        this(graph, DEFAULT_HORIZONTAL_SPACING, DEFAULT_VERTICAL_SPACING);
+    }
+
+    public LayeredLayout(Graph<V, E> graph, int horzSpacing, int vertSpacing) {
+        super(graph);
+        this.horzSpacing = horzSpacing;
+        this.vertSpacing = vertSpacing;
+    }
+
+    /**
+     * Limits the number of down and up sweeps ordering the levels.
+     */
+    public void setMaxSweeps(int maxSweeps) {
+        this.maxSweeps = maxSweeps;
+    }
+
+    /**
+     * Limits the time for ordering the levels, the best order found so far is kept when the time is up.
+     */
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * @return whether the time ran out before the sweeps were done
+     */
+    public boolean isBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    /**
+     * @return the number of crossings between the levels of the layout, including the edges to dummy nodes
+     */
+    public long getCrossings() {
+        return crossings;
+    }
+
+    @Override
+    public void initialize() {
+        if (!executed) {
+            executed = true;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeBudgetMillis, TimeUnit.DAYS.toMillis(1)));
+            buildLevels();
+            orderLevels(deadline);
+            placeVertices();
+        }
+    }
+
+    @Override
+    public void reset() {
+        executed = false;
+        budgetExhausted = false;
+        crossings = -1;
+    }
+
+    /**
+     * Numbers the vertices, breaks the cycles, assigns the levels and inserts the dummy nodes.
+     */
+    private void buildLevels() {
+        vertices = new ArrayList<V>(graph.getVertices());
+        int vertexCount = vertices.size();
+        Map<V, Integer> vertexIndices = new HashMap<V, Integer>();
+        for (int v = 0; v < vertexCount; v++) {
+            vertexIndices.put(vertices.get(v), v);
+        }
+        Map<E, Integer> edgeIndices = new HashMap<E, Integer>();
+        int edgeCount = graph.getEdgeCount();
+        int[] sources = new int[edgeCount];
+        int[] targets = new int[edgeCount];
+        for (E edge : graph.getEdges()) {
+            int index = edgeIndices.size();
+            edgeIndices.put(edge, index);
+            sources[index] = vertexIndices.get(graph.getSource(edge));
+            targets[index] = vertexIndices.get(graph.getDest(edge));
+        }
+        int[][] outEdges = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            int[] edges = new int[graph.outDegree(vertices.get(v))];
+            int i = 0;
+            for (E edge : graph.getOutEdges(vertices.get(v))) {
+                edges[i++] = edgeIndices.get(edge);
+            }
+            outEdges[v] = edges;
+        }
+
+        boolean[] reversed = CycleBreaker.findReversedEdges(outEdges, targets);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (reversed[edge]) {
+                int source = sources[edge];
+                sources[edge] = targets[edge];
+                targets[edge] = source;
+            }
+        }
+
+        int[] vertexLevels = longestPathLevels(vertexCount, sources, targets);
+        int levelCount = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            levelCount = Math.max(levelCount, vertexLevels[v] + 1);
+        }
+
+        // every edge becomes a chain of segments between adjacent levels, self loops are dropped
+        int dummyCount = 0;
+        int segmentCount = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int span = vertexLevels[targets[edge]] - vertexLevels[sources[edge]];
+            if (span > 0) {
+                dummyCount += span - 1;
+                segmentCount += span;
+            }
+        }
+        nodeCount = vertexCount + dummyCount;
+        nodeLevels = Arrays.copyOf(vertexLevels, nodeCount);
+        int[] segmentSources = new int[segmentCount];
+        int[] segmentTargets = new int[segmentCount];
+        int node = vertexCount;
+        int segment = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int source = sources[edge];
+            int target = targets[edge];
+            if (vertexLevels[target] - vertexLevels[source] <= 0) {
+                continue;
+            }
+            int previous = source;
+            for (int level = vertexLevels[source] + 1; level < vertexLevels[target]; level++) {
+                nodeLevels[node] = level;
+                segmentSources[segment] = previous;
+                segmentTargets[segment++] = node;
+                previous = node++;
+            }
+            segmentSources[segment] = previous;
+            segmentTargets[segment++] = target;
+        }
+
+        downOffsets = new int[nodeCount + 1];
+        upOffsets = new int[nodeCount + 1];
+        for (int s = 0; s < segmentCount; s++) {
+            downOffsets[segmentSources[s] + 1]++;
+            upOffsets[segmentTargets[s] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            downOffsets[n + 1] += downOffsets[n];
+            upOffsets[n + 1] += upOffsets[n];
+        }
+        downNeighbors = new int[segmentCount];
+        upNeighbors = new int[segmentCount];
+        int[] downFill = Arrays.copyOf(downOffsets, nodeCount);
+        int[] upFill = Arrays.copyOf(upOffsets, nodeCount);
+        for (int s = 0; s < segmentCount; s++) {
+            downNeighbors[downFill[segmentSources[s]]++] = segmentTargets[s];
+            upNeighbors[upFill[segmentTargets[s]]++] = segmentSources[s];
+        }
+
+        int[] levelSizes = new int[levelCount];
+        for (int n = 0; n < nodeCount; n++) {
+            levelSizes[nodeLevels[n]]++;
+        }
+        levels = new int[levelCount][];
+        int maxLevelSize = 0;
+        for (int level = 0; level < levelCount; level++) {
+            levels[level] = new int[levelSizes[level]];
+            maxLevelSize = Math.max(maxLevelSize, levelSizes[level]);
+            levelSizes[level] = 0;
+        }
+        positions = new int[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            int level = nodeLevels[n];
+            positions[n] = levelSizes[level];
+            levels[level][levelSizes[level]++] = n;
+        }
+
+        medians = new double[nodeCount];
+        barycenters = new double[nodeCount];
+        sortBuffer = new int[maxLevelSize];
+        savedLevel = new int[maxLevelSize];
+        int maxDegree = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            maxDegree = Math.max(maxDegree, Math.max(downOffsets[n + 1] - downOffsets[n], upOffsets[n + 1] - upOffsets[n]));
+        }
+        neighborPositions = new int[maxDegree];
+        crossingSequence = new int[segmentCount];
+        int treeLeaves = 1;
+        while (treeLeaves < maxLevelSize) {
+            treeLeaves *= 2;
+        }
+        accumulatorTree = new int[2 * treeLeaves - 1];
+    }
+
+    /**
+     * @return the length of the longest path from a root to every vertex, ignoring self loops
+     */
+    static int[] longestPathLevels(int vertexCount, int[] sources, int[] targets) {
+        int[] inDegrees = new int[vertexCount];
+        int[] outOffsets = new int[vertexCount + 1];
+        for (int edge = 0; edge < sources.length; edge++) {
+            if (sources[edge] != targets[edge]) {
+                inDegrees[targets[edge]]++;
+                outOffsets[sources[edge] + 1]++;
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            outOffsets[v + 1] += outOffsets[v];
+        }
+        int[] outTargets = new int[outOffsets[vertexCount]];
+        int[] fill = Arrays.copyOf(outOffsets, vertexCount);
+        for (int edge = 0; edge < sources.length; edge++) {
+            if (sources[edge] != targets[edge]) {
+                outTargets[fill[sources[edge]]++] = targets[edge];
+            }
+        }
+        int[] vertexLevels = new int[vertexCount];
+        int[] queue = new int[vertexCount];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            if (inDegrees[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int vertex = queue[head++];
+            for (int i = outOffsets[vertex]; i < outOffsets[vertex + 1]; i++) {
+                int target = outTargets[i];
+                vertexLevels[target] = Math.max(vertexLevels[target], vertexLevels[vertex] + 1);
+                if (--inDegrees[target] == 0) {
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return vertexLevels;
+    }
+
+    private void orderLevels(long deadline) {
+        int levelCount = levels.length;
+        int[][] bestLevels = copyLevels();
+        long best = countCrossings();
+        int sweepsWithoutImprovement = 0;
+        for (int sweep = 0; sweep < maxSweeps && best > 0 && sweepsWithoutImprovement < MAX_SWEEPS_WITHOUT_IMPROVEMENT; sweep++) {
+            if (System.nanoTime() - deadline > 0) {
+                budgetExhausted = true;
+                break;
+            }
+            for (int level = 1; level < levelCount; level++) {
+                reorderLevel(level, true);
+            }
+            for (int level = levelCount - 2; level >= 0; level--) {
+                reorderLevel(level, false);
+            }
+            long current = countCrossings();
+            if (current < best) {
+                best = current;
+                bestLevels = copyLevels();
+                sweepsWithoutImprovement = 0;
+            } else {
+                sweepsWithoutImprovement++;
+            }
+        }
+        levels = bestLevels;
+        for (int[] level : levels) {
+            for (int position = 0; position < level.length; position++) {
+                positions[level[position]] = position;
+            }
+        }
+        crossings = best;
+    }
+
+    /**
+     * Sorts the level by the medians of the positions of the neighbors on the level above or below,
+     * keeping the new order only if it does not cross more edges.
+     */
+    private void reorderLevel(int level, boolean byUpperNeighbors) {
+        int[] nodes = levels[level];
+        long before = countCrossingsAround(level);
+        for (int node : nodes) {
+            if (byUpperNeighbors) {
+                computeKeys(node, upNeighbors, upOffsets[node], upOffsets[node + 1]);
+            } else {
+                computeKeys(node, downNeighbors, downOffsets[node], downOffsets[node + 1]);
+            }
+        }
+        System.arraycopy(nodes, 0, savedLevel, 0, nodes.length);
+        sortLevel(nodes);
+        for (int position = 0; position < nodes.length; position++) {
+            positions[nodes[position]] = position;
+        }
+        if (countCrossingsAround(level) > before) {
+            System.arraycopy(savedLevel, 0, nodes, 0, nodes.length);
+            for (int position = 0; position < nodes.length; position++) {
+                positions[nodes[position]] = position;
+            }
+        }
+    }
+
+    /**
+     * A node without neighbors keeps its position.
+     */
+    private void computeKeys(int node, int[] neighbors, int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            medians[node] = positions[node];
+            barycenters[node] = positions[node];
+            return;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            neighborPositions[i] = positions[neighbors[from + i]];
+            sum += neighborPositions[i];
+        }
+        Arrays.sort(neighborPositions, 0, count);
+        int middle = count / 2;
+        medians[node] = (count % 2 == 1) ? neighborPositions[middle]
+                : (neighborPositions[middle - 1] + neighborPositions[middle]) / 2.0;
+        barycenters[node] = (double) sum / count;
+    }
+
+    private int compareNodes(int a, int b) {
+        int result = Double.compare(medians[a], medians[b]);
+        if (result == 0) {
+            result = Double.compare(barycenters[a], barycenters[b]);
+        }
+        if (result == 0) {
+            result = positions[a] - positions[b];
+        }
+        return result;
+    }
+
+    /**
+     * Bottom up merge sort of the nodes of a level into the reused buffer.
+     */
+    private void sortLevel(int[] nodes) {
+        int size = nodes.length;
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size - width; start += 2 * width) {
+                int middle = start + width;
+                int end = Math.min(start + 2 * width, size);
+                System.arraycopy(nodes, start, sortBuffer, start, end - start);
+                int left = start;
+                int right = middle;
+                int out = start;
+                while (left < middle && right < end) {
+                    nodes[out++] = compareNodes(sortBuffer[right], sortBuffer[left]) < 0 ? sortBuffer[right++] : sortBuffer[left++];
+                }
+                while (left < middle) {
+                    nodes[out++] = sortBuffer[left++];
+                }
+                while (right < end) {
+                    nodes[out++] = sortBuffer[right++];
+                }
+            }
+        }
+    }
+
+    private long countCrossingsAround(int level) {
+        long count = 0;
+        if (level > 0) {
+            count += countCrossings(level - 1);
+        }
+        if (level < levels.length - 1) {
+            count += countCrossings(level);
+        }
+        return count;
+    }
+
+    private long countCrossings() {
+        long count = 0;
+        for (int level = 0; level < levels.length - 1; level++) {
+            count += countCrossings(level);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the crossings between the segments from the given level to the next one. The positions of
+     * the lower ends, ordered by the upper and then by the lower ends, are inserted into an accumulator
+     * tree, each counting the inserted positions to its right.
+     */
+    private long countCrossings(int upperLevel) {
+        int length = 0;
+        for (int node : levels[upperLevel]) {
+            int start = length;
+            for (int i = downOffsets[node]; i < downOffsets[node + 1]; i++) {
+                crossingSequence[length++] = positions[downNeighbors[i]];
+            }
+            Arrays.sort(crossingSequence, start, length);
+        }
+        int firstIndex = 1;
+        while (firstIndex < levels[upperLevel + 1].length) {
+            firstIndex *= 2;
+        }
+        int treeSize = 2 * firstIndex - 1;
+        firstIndex -= 1;
+        Arrays.fill(accumulatorTree, 0, treeSize, 0);
+        long count = 0;
+        for (int i = 0; i < length; i++) {
+            int index = crossingSequence[i] + firstIndex;
+            accumulatorTree[index]++;
+            while (index > 0) {
+                if (index % 2 != 0) {
+                    count += accumulatorTree[index + 1];
+                }
+                index = (index - 1) / 2;
+                accumulatorTree[index]++;
+            }
+        }
+        return count;
+    }
+
+    private int[][] copyLevels() {
+        int[][] copy = new int[levels.length][];
+        for (int level = 0; level < levels.length; level++) {
+            copy[level] = levels[level].clone();
+        }
+        return copy;
+    }
+
+    private void placeVertices() {
+        double[] xs = new BrandesKoepf(levels, positions, nodeLevels, upOffsets, upNeighbors,
+                downOffsets, downNeighbors, vertices.size(), horzSpacing).assignCoordinates();
+        double minX = Double.POSITIVE_INFINITY;
+        for (double x : xs) {
+            minX = Math.min(minX, x);
+        }
+        for (int v = 0; v < vertices.size(); v++) {
+            setLocation(vertices.get(v), 10.0 + xs[v] - minX, 10.0 + nodeLevels[v] * vertSpacing);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Layered Layout";
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import edu.uci.ics.jung.graph.Graph;
+import hudson.Util;
+import hudson.plugins.depgraph_view.model.graph.Edge;
+import hudson.plugins.depgraph_view.model.graph.ProjectNode;
+
+import javax.inject.Singleton;
+import java.awt.geom.Point2D;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the coordinates of laid out clusters, keyed by a fingerprint of their nodes and edges.
+ * A cluster which did not change since it was laid out reuses its layout, even if other
+ * clusters of the graph changed.
+ * A layout which ran out of its budget is only kept for a few minutes, so that the cluster is laid out
+ * again once the load that may have caused it is gone.
+ */
+@Singleton
+public class LayoutCache {
+
+    // the total number of nodes in the cached layouts
+    private static final long MAX_NODES = 100000;
+
+    static final long EXHAUSTED_EXPIRY_MINUTES = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Cache<String, ImmutableMap<String, Point2D>> layouts;
+
+    // the layouts being calculated and those which ran out of their budget
+    private final Cache<String, ClusterLayout> pendingLayouts;
+
+    public LayoutCache() {
+        this(Ticker.systemTicker());
+    }
+
+    LayoutCache(Ticker ticker) {
+        layouts = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_NODES)
+                .weigher(new Weigher<String, ImmutableMap<String, Point2D>>() {
+                    @Override
+                    public int weigh(String fingerprint, ImmutableMap<String, Point2D> points) {
+                        return points.size();
+                    }
+                })
+                .expireAfterAccess(1, TimeUnit.DAYS)
+                .ticker(ticker)
+                .build();
+        pendingLayouts = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_NODES)
+                .weigher(new Weigher<String, ClusterLayout>() {
+                    @Override
+                    public int weigh(String fingerprint, ClusterLayout layout) {
+                        return layout.getPoints().size();
+                    }
+                })
+                .expireAfterWrite(EXHAUSTED_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @return the points of the nodes of the cluster by their full names, calculated by the given layout
+     *         if the cluster was not laid out before. The returned points must not be modified.
+     */
+    public ImmutableMap<String, Point2D> getLayout(Graph<ProjectNode, Edge> cluster,
+                                                   Callable<ClusterLayout> layout) {
+        String fingerprint = fingerprint(cluster);
+        ImmutableMap<String, Point2D> points = layouts.getIfPresent(fingerprint);
+        if (points != null) {
+            return points;
+        }
+        ClusterLayout laidOut;
+        try {
+            // concurrent requests for the same cluster wait for a single layout
+            laidOut = pendingLayouts.get(fingerprint, layout);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (!laidOut.isBudgetExhausted()) {
+            layouts.put(fingerprint, laidOut.getPoints());
+            pendingLayouts.invalidate(fingerprint);
+        }
+        return laidOut.getPoints();
+    }
+
+    /**
+     * @return a hash of the sorted full names of the nodes and of the sorted edges of the cluster
+     */
+    static String fingerprint(Graph<ProjectNode, Edge> cluster) {
+        List<String> nodes = Lists.newArrayListWithCapacity(cluster.getVertexCount());
+        for (ProjectNode node : cluster.getVertices()) {
+            nodes.add(node.getFullName());
+        }
+        Collections.sort(nodes);
+        List<String> edges = Lists.newArrayListWithCapacity(cluster.getEdgeCount());
+        for (Edge edge : cluster.getEdges()) {
+            edges.add(cluster.getSource(edge).getFullName() + '\n' + cluster.getDest(edge).getFullName()
+                    + '\n' + edge.getType());
+        }
+        Collections.sort(edges);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String node : nodes) {
+            digest.update(node.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        // separates the nodes from the edges
+        digest.update((byte) 1);
+        for (String edge : edges) {
+            digest.update(edge.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * The points of a laid out cluster, and whether the layout ran out of its budget before it was done
+     */
+    public static final class ClusterLayout {
+        private final ImmutableMap<String, Point2D> points;
+        private final boolean budgetExhausted;
+
+        public ClusterLayout(ImmutableMap<String, Point2D> points, boolean budgetExhausted) {
+            this.points = points;
+            this.budgetExhausted = budgetExhausted;
+        }
+
+        public ImmutableMap<String, Point2D> getPoints() {
+            return points;
+        }
+
+        public boolean isBudgetExhausted() {
+            return budgetExhausted;
+        }
+    }
+}
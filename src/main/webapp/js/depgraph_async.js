@@ -0,0 +1,83 @@
+;
+// Renders the graph in the background (see AbstractDependencyGraphAction.doRender)
+// and polls until it is done, instead of blocking a request until the graph is rendered.
+var depgraphAsync = (function() {
+    var pollMillis = 1000;
+
+    function get(url, onSuccess, onError) {
+        var request = new XMLHttpRequest();
+        request.open('GET', url, true);
+        request.onreadystatechange = function() {
+            if (request.readyState != 4) {
+                return;
+            }
+            if (request.status == 200) {
+                onSuccess(request.responseText);
+            } else {
+                onError(request);
+            }
+        };
+        request.send(null);
+    }
+
+    function follow(job, done, failed) {
+        if (job.status == 'done') {
+            done(job.result, job.companionResult);
+        } else if (job.status == 'failed') {
+            failed(job.error);
+        } else {
+            setTimeout(function() {
+                get('renderStatus?token=' + encodeURIComponent(job.token), function(text) {
+                    follow(JSON.parse(text), done, failed);
+                }, function(request) {
+                    failed(request.status + ' ' + request.statusText);
+                });
+            }, pollMillis);
+        }
+    }
+
+    function render(type, done, failed) {
+        get('render?type=' + type, function(text) {
+            follow(JSON.parse(text), done, failed);
+        }, function(request) {
+            // too many graphs are rendered at the moment, try again later
+            var retryAfter = request.status == 503 ? parseInt(request.getResponseHeader('Retry-After'), 10) : NaN;
+            if (isNaN(retryAfter)) {
+                failed(request.status + ' ' + request.statusText);
+            } else {
+                setTimeout(function() { render(type, done, failed); }, retryAfter * 1000);
+            }
+        });
+    }
+
+    return {
+        /**
+         * Calls done with the url of the rendered graph and, for images, the url of their image map,
+         * or failed with a message
+         */
+        render: render,
+
+        /**
+         * Replaces the content of the element with the graph image and its image map once they are rendered
+         */
+        showImage: function(elementId) {
+            var element = document.getElementById(elementId);
+            render('png', function(imageUrl, mapUrl) {
+                get(mapUrl, function(map) {
+                    element.innerHTML = map;
+                    var image = document.createElement('img');
+                    var maps = element.getElementsByTagName('map');
+                    if (maps.length > 0) {
+                        image.setAttribute('usemap', '#' + maps[0].getAttribute('name'));
+                    }
+                    image.setAttribute('src', imageUrl);
+                    element.appendChild(image);
+                }, function(request) {
+                    element.textContent = request.status + ' ' + request.statusText;
+                });
+            }, function(message) {
+                element.textContent = message;
+            });
+        }
+    };
+})();
@@ -15,6 +15,18 @@
         paper: jQuery("#paper"),
         colordep: '#FF0000', // red
         colorcopy: '#32CD32', // green
+        // loads graph.json, after rendering it in the background if enabled
+        loadGraph : function(callback) {
+            if (window.depview.asyncEnabled) {
+                depgraphAsync.render('json', function(result) {
+                    jQuery.getJSON(result, callback);
+                }, function(message) {
+                    window.depview.paper.text(message);
+                });
+            } else {
+                jQuery.getJSON('graph.json', callback);
+            }
+        },
         init : function() {
             jsPlumb.importDefaults({
                 Connector : ["StateMachine", { curviness: 10 }],// Straight, Flowchart, Straight, Bezier
@@ -54,7 +66,7 @@
                 ]
 
             });
-            jQuery.getJSON('graph.json', function(data) {
+            window.depview.loadGraph(function(data) {
 
                 var top = 3;
                 var space = 150;
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static hudson.plugins.depgraph_view.AbstractDependencyGraphAction.graphUrl;
+import static hudson.plugins.depgraph_view.AbstractDependencyGraphAction.matchesETag;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractDependencyGraphActionTest {
+
+    private static final String ETAG = "\"0123456789abcdef\"";
+
+    private static final String WEAK_ETAG = "W/" + ETAG;
+
+    @Test
+    public void testNoHeader() {
+        assertFalse(matchesETag(null, ETAG));
+        assertFalse(matchesETag("", ETAG));
+    }
+
+    @Test
+    public void testSingleTag() {
+        assertTrue(matchesETag(ETAG, ETAG));
+        assertFalse(matchesETag("\"fedcba9876543210\"", ETAG));
+    }
+
+    @Test
+    public void testAnyTag() {
+        assertTrue(matchesETag("*", ETAG));
+        assertTrue(matchesETag("*", WEAK_ETAG));
+    }
+
+    @Test
+    public void testList() {
+        assertTrue(matchesETag("\"a\", " + ETAG + ", \"b\"", ETAG));
+        assertTrue(matchesETag("\"a\"," + ETAG, ETAG));
+        assertTrue(matchesETag(" \"a\" ,\t" + ETAG + " ", ETAG));
+        assertTrue(matchesETag(",," + ETAG + ",", ETAG));
+        assertFalse(matchesETag("\"a\", \"b\"", ETAG));
+    }
+
+    @Test
+    public void testWeakComparison() {
+        assertTrue(matchesETag(WEAK_ETAG, ETAG));
+        assertTrue(matchesETag(ETAG, WEAK_ETAG));
+        assertTrue(matchesETag(WEAK_ETAG, WEAK_ETAG));
+        assertTrue(matchesETag("\"a\", " + WEAK_ETAG, WEAK_ETAG));
+        assertFalse(matchesETag("W/\"a\"", WEAK_ETAG));
+    }
+
+    @Test
+    public void testQuoting() {
+        // the quotes are part of the tag
+        assertFalse(matchesETag("0123456789abcdef", ETAG));
+        assertFalse(matchesETag("W/0123456789abcdef", ETAG));
+        assertFalse(matchesETag("\"0123456789abcdef", ETAG));
+        // a comma within the quotes does not separate the tags
+        assertTrue(matchesETag("\"a,b\"", "\"a,b\""));
+        assertFalse(matchesETag("\"a,b\"", "\"b\""));
+        assertFalse(matchesETag("\"x, " + ETAG.substring(1), ETAG));
+        // a tag without quotes is skipped
+        assertTrue(matchesETag("junk, " + ETAG, ETAG));
+    }
+
+    @Test
+    public void testDroppedOutputRedirectKeepsPretty() {
+        // every output outweighs the kept outputs
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), 1, Ticker.systemTicker());
+
+        BackgroundRenders.Job pretty = backgroundRenders.start("pretty", "user", SupportedImageType.JSON, true, jsonTask());
+        assertNull(backgroundRenders.getOutput(pretty, SupportedImageType.JSON));
+        assertEquals("graph.json?pretty=true", graphUrl(pretty, SupportedImageType.JSON));
+
+        BackgroundRenders.Job plain = backgroundRenders.start("plain", "user", SupportedImageType.JSON, false, jsonTask());
+        assertNull(backgroundRenders.getOutput(plain, SupportedImageType.JSON));
+        assertEquals("graph.json", graphUrl(plain, SupportedImageType.JSON));
+    }
+
+    private static Callable<Map<SupportedImageType, byte[]>> jsonTask() {
+        return new Callable<Map<SupportedImageType, byte[]>>() {
+            @Override
+            public Map<SupportedImageType, byte[]> call() {
+                return ImmutableMap.of(SupportedImageType.JSON, new byte[] {'{', '}'});
+            }
+        };
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.plugins.depgraph_view.BackgroundRenders.Job;
+import hudson.plugins.depgraph_view.BackgroundRenders.Status;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BackgroundRendersTest {
+    private static final long LARGE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void testRunningJobIsShared() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BackgroundRenders backgroundRenders = new BackgroundRenders(executor, LARGE, ticker);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch proceed = new CountDownLatch(1);
+            Callable<Map<SupportedImageType, byte[]>> task = new Callable<Map<SupportedImageType, byte[]>>() {
+                @Override
+                public Map<SupportedImageType, byte[]> call() throws InterruptedException {
+                    renders.incrementAndGet();
+                    started.countDown();
+                    proceed.await();
+                    return ImmutableMap.of(SupportedImageType.JSON, bytes("{}"));
+                }
+            };
+
+            Job job = backgroundRenders.start("token", "user", SupportedImageType.JSON, false, task);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(Status.RUNNING, job.getStatus());
+            assertNull(backgroundRenders.getOutput(job, SupportedImageType.JSON));
+            assertSame(job, backgroundRenders.start("token", "user", SupportedImageType.JSON, false, task));
+
+            proceed.countDown();
+            awaitDone(job);
+            assertEquals(1, renders.get());
+            assertArrayEquals(bytes("{}"), backgroundRenders.getOutput(job, SupportedImageType.JSON));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFinishedJobIsShared() throws Exception {
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), LARGE, ticker);
+
+        Job job = backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+        assertEquals(Status.DONE, job.getStatus());
+        assertSame(job, backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask()));
+        assertSame(job, backgroundRenders.getJob("token"));
+
+        assertEquals(1, renders.get());
+        assertArrayEquals(bytes("png"), backgroundRenders.getOutput(job, SupportedImageType.PNG));
+        assertArrayEquals(bytes("cmapx"), backgroundRenders.getOutput(job, SupportedImageType.MAP));
+        assertNull(backgroundRenders.getOutput(job, SupportedImageType.SVG));
+    }
+
+    @Test
+    public void testFailedJobIsStartedAgain() throws Exception {
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), LARGE, ticker);
+
+        Job failed = backgroundRenders.start("token", "user", SupportedImageType.PNG, false,
+                new Callable<Map<SupportedImageType, byte[]>>() {
+                    @Override
+                    public Map<SupportedImageType, byte[]> call() throws IOException {
+                        throw new IOException("dot failed");
+                    }
+                });
+        assertEquals(Status.FAILED, failed.getStatus());
+        assertEquals("dot failed", failed.getError());
+
+        Job job = backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+        assertEquals(Status.DONE, job.getStatus());
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void testJobsExpire() throws Exception {
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), LARGE, ticker);
+        Job job = backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(BackgroundRenders.KEEP_MINUTES - 1));
+        assertSame(job, backgroundRenders.getJob("token"));
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertNull(backgroundRenders.getJob("token"));
+        assertNull(backgroundRenders.getOutput(job, SupportedImageType.PNG));
+
+        backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testJobWithDroppedOutputIsStartedAgain() throws Exception {
+        // every output outweighs the kept outputs
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), 1, ticker);
+
+        Job job = backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+        assertEquals(Status.DONE, job.getStatus());
+        assertNull(backgroundRenders.getOutput(job, SupportedImageType.PNG));
+
+        backgroundRenders.start("token", "user", SupportedImageType.PNG, false, imageTask());
+        assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testOutputAboveSegmentShareIsKept() throws Exception {
+        BackgroundRenders backgroundRenders = new BackgroundRenders(MoreExecutors.sameThreadExecutor(), 1000, ticker);
+        // more than a quarter of the limit, the share of a segment with Guava's default concurrency level
+        final byte[] json = bytes(Strings.repeat("x", 600));
+
+        Job job = backgroundRenders.start("token", "user", SupportedImageType.JSON, false,
+                new Callable<Map<SupportedImageType, byte[]>>() {
+                    @Override
+                    public Map<SupportedImageType, byte[]> call() {
+                        return ImmutableMap.of(SupportedImageType.JSON, json);
+                    }
+                });
+
+        assertArrayEquals(json, backgroundRenders.getOutput(job, SupportedImageType.JSON));
+    }
+
+    /**
+     * Renders an image together with its image map
+     */
+    private Callable<Map<SupportedImageType, byte[]>> imageTask() {
+        return new Callable<Map<SupportedImageType, byte[]>>() {
+            @Override
+            public Map<SupportedImageType, byte[]> call() {
+                renders.incrementAndGet();
+                return ImmutableMap.of(SupportedImageType.PNG, bytes("png"), SupportedImageType.MAP, bytes("cmapx"));
+            }
+        };
+    }
+
+    private static void awaitDone(Job job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getStatus() == Status.RUNNING) {
+            assertTrue("The job did not finish", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(UTF_8);
+    }
+}
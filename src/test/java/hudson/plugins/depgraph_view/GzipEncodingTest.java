@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static hudson.plugins.depgraph_view.GzipEncoding.acceptsGzip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GzipEncodingTest {
+
+    @Test
+    public void testNoHeader() {
+        assertFalse(acceptsGzip(null));
+        assertFalse(acceptsGzip(""));
+        assertFalse(acceptsGzip("identity"));
+        assertFalse(acceptsGzip("deflate, br"));
+    }
+
+    @Test
+    public void testGzip() {
+        assertTrue(acceptsGzip("gzip"));
+        assertTrue(acceptsGzip("x-gzip"));
+        assertTrue(acceptsGzip("deflate, gzip"));
+        assertTrue(acceptsGzip("gzip;q=1.0, identity; q=0.5"));
+        assertTrue(acceptsGzip("gzip;q=0.001"));
+    }
+
+    @Test
+    public void testQualityZero() {
+        assertFalse(acceptsGzip("gzip;q=0"));
+        assertFalse(acceptsGzip("gzip;q=0.0"));
+        assertFalse(acceptsGzip("x-gzip;q=0"));
+        assertFalse(acceptsGzip("gzip;q=invalid"));
+        assertFalse(acceptsGzip("gzip;q="));
+    }
+
+    @Test
+    public void testAnyCoding() {
+        assertTrue(acceptsGzip("*"));
+        assertTrue(acceptsGzip("identity, *;q=0.1"));
+        assertFalse(acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    public void testGzipTakesPrecedenceOverAnyCoding() {
+        assertFalse(acceptsGzip("*, gzip;q=0"));
+        assertFalse(acceptsGzip("gzip;q=0, *"));
+        assertTrue(acceptsGzip("*;q=0, gzip"));
+        assertTrue(acceptsGzip("gzip, *;q=0"));
+        // x-gzip is an alias of gzip
+        assertTrue(acceptsGzip("gzip;q=0, x-gzip"));
+    }
+
+    @Test
+    public void testCaseAndWhitespace() {
+        assertTrue(acceptsGzip("GZIP"));
+        assertTrue(acceptsGzip("X-Gzip"));
+        assertTrue(acceptsGzip("  gzip  ,identity"));
+        assertTrue(acceptsGzip("deflate,\tgzip"));
+        assertFalse(acceptsGzip("gzip;Q=0"));
+        assertFalse(acceptsGzip("gzip ; q = 0"));
+        assertFalse(acceptsGzip("gzip;\tq=0"));
+        assertTrue(acceptsGzip("gzip ; q = 0.5"));
+    }
+
+    @Test
+    public void testPngIsNeverCompressed() {
+        List<String> varyHeaders = new ArrayList<String>();
+        assertFalse(SupportedImageType.PNG.isCompressible());
+        assertFalse(GzipEncoding.negotiate(request("gzip"), response(varyHeaders), SupportedImageType.PNG));
+        assertFalse(GzipEncoding.negotiate(request("*"), response(varyHeaders), SupportedImageType.PNG));
+        assertEquals(0, varyHeaders.size());
+    }
+
+    @Test
+    public void testTextIsCompressed() {
+        List<String> varyHeaders = new ArrayList<String>();
+        for (SupportedImageType imageType : SupportedImageType.values()) {
+            if (imageType != SupportedImageType.PNG) {
+                assertTrue(imageType.name(), GzipEncoding.negotiate(request("gzip"), response(varyHeaders), imageType));
+            }
+        }
+        assertFalse(GzipEncoding.negotiate(request(null), response(varyHeaders), SupportedImageType.SVG));
+        assertEquals(SupportedImageType.values().length, varyHeaders.size());
+        assertEquals("Accept-Encoding", varyHeaders.get(0));
+    }
+
+    /**
+     * @return a request with only the given Accept-Encoding header
+     */
+    private static HttpServletRequest request(final String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(GzipEncodingTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getHeader") && "Accept-Encoding".equalsIgnoreCase((String) args[0])) {
+                            return acceptEncoding;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @return a response which records the values of the Vary headers added to it
+     */
+    private static HttpServletResponse response(final List<String> varyHeaders) {
+        return (HttpServletResponse) Proxy.newProxyInstance(GzipEncodingTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ((method.getName().equals("addHeader") || method.getName().equals("setHeader"))
+                                && "Vary".equals(args[0])) {
+                            varyHeaders.add((String) args[1]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
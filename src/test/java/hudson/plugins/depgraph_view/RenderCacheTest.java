@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import hudson.plugins.depgraph_view.DependencyGraphProperty.DescriptorImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderCacheTest {
+    private static final long LARGE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testCompanionIsCachedWithRender() throws Exception {
+        RenderCache renderCache = new RenderCache(LARGE, LARGE, MoreExecutors.sameThreadExecutor());
+
+        assertArrayEquals(bytes("png"), renderCache.getRender("hash", SupportedImageType.PNG, imageRenderer("png", "cmapx")));
+        assertArrayEquals(bytes("cmapx"), renderCache.getRender("hash", SupportedImageType.MAP, imageRenderer("png", "cmapx")));
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void testRenderAboveSegmentShareIsKept() throws Exception {
+        setSpillEnabled(true);
+        RenderCache renderCache = new RenderCache(1000, LARGE, MoreExecutors.sameThreadExecutor());
+
+        // more than a quarter of the limit, the share of a segment with Guava's default concurrency level
+        renderCache.getRender("hash", SupportedImageType.SVG, svgRenderer(Strings.repeat("x", 600)));
+        renderCache.getRender("hash", SupportedImageType.SVG, svgRenderer(Strings.repeat("x", 600)));
+
+        assertEquals(1, renders.get());
+        assertFalse(spilled("hash.svg").exists());
+    }
+
+    @Test
+    public void testEvictedRenderIsDroppedWithoutSpill() throws Exception {
+        setSpillEnabled(false);
+        // every render outweighs the cache
+        RenderCache renderCache = new RenderCache(0, LARGE, MoreExecutors.sameThreadExecutor());
+
+        renderCache.getRender("hash", SupportedImageType.SVG, svgRenderer("svg"));
+        renderCache.getRender("hash", SupportedImageType.SVG, svgRenderer("svg"));
+
+        assertEquals(2, renders.get());
+        assertFalse(spilled("hash.svg").exists());
+    }
+
+    @Test
+    public void testEvictedRenderIsSpilledAndReloaded() throws Exception {
+        setSpillEnabled(true);
+        RenderCache renderCache = new RenderCache(0, LARGE, MoreExecutors.sameThreadExecutor());
+
+        renderCache.getRender("hash", SupportedImageType.PNG, imageRenderer("png", "cmapx"));
+
+        assertTrue(spilled("hash.png").isFile());
+        assertTrue(spilled("hash.cmapx").isFile());
+        assertArrayEquals(bytes("png"), renderCache.getRender("hash", SupportedImageType.PNG, imageRenderer("png", "cmapx")));
+        assertArrayEquals(bytes("cmapx"), renderCache.getRender("hash", SupportedImageType.MAP, imageRenderer("png", "cmapx")));
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    public void testSpillDirIsTrimmedLeastRecentlyUsedFirst() throws Exception {
+        setSpillEnabled(true);
+        // room for two renders of ten bytes
+        RenderCache renderCache = new RenderCache(0, 25, MoreExecutors.sameThreadExecutor());
+        long now = System.currentTimeMillis();
+
+        renderCache.getRender("oldest", SupportedImageType.SVG, svgRenderer("0123456789"));
+        renderCache.getRender("older", SupportedImageType.SVG, svgRenderer("0123456789"));
+        assertTrue(spilled("oldest.svg").setLastModified(now - 20000));
+        assertTrue(spilled("older.svg").setLastModified(now - 10000));
+        renderCache.getRender("newest", SupportedImageType.SVG, svgRenderer("0123456789"));
+
+        assertFalse(spilled("oldest.svg").exists());
+        assertTrue(spilled("older.svg").isFile());
+        assertTrue(spilled("newest.svg").isFile());
+    }
+
+    private void setSpillEnabled(boolean spillEnabled) {
+        j.jenkins.getDescriptorByType(DescriptorImpl.class).setRenderCacheSpillEnabled(spillEnabled);
+    }
+
+    private File spilled(String key) {
+        return new File(j.jenkins.getRootDir(), "depgraph-view/renders/" + key);
+    }
+
+    /**
+     * @return a renderer which renders an image together with its image map, like a single run of dot
+     */
+    private Callable<Map<SupportedImageType, byte[]>> imageRenderer(final String png, final String map) {
+        return new Callable<Map<SupportedImageType, byte[]>>() {
+            @Override
+            public Map<SupportedImageType, byte[]> call() {
+                renders.incrementAndGet();
+                return ImmutableMap.of(SupportedImageType.PNG, bytes(png), SupportedImageType.MAP, bytes(map));
+            }
+        };
+    }
+
+    private Callable<Map<SupportedImageType, byte[]>> svgRenderer(final String svg) {
+        return new Callable<Map<SupportedImageType, byte[]>>() {
+            @Override
+            public Map<SupportedImageType, byte[]> call() {
+                renders.incrementAndGet();
+                return ImmutableMap.of(SupportedImageType.SVG, bytes(svg));
+            }
+        };
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(UTF_8);
+    }
+}
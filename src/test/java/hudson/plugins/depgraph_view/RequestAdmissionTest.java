@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.google.inject.Injector;
+import hudson.plugins.depgraph_view.DependencyGraphProperty.DescriptorImpl;
+import jenkins.model.Jenkins;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestAdmissionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() {
+        j.jenkins.getDescriptorByType(DescriptorImpl.class).setGraphRequests(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFullQueueIsTurnedAway() throws Exception {
+        RequestAdmission admission = new RequestAdmission(1, TimeUnit.MINUTES.toMillis(1));
+        assertTrue(admission.tryAcquire());
+        Future<Boolean> waiting = executor.submit(tryAcquire(admission));
+        awaitQueued(admission, 1);
+
+        long start = System.nanoTime();
+        assertFalse(admission.tryAcquire());
+        assertTrue("The request waited for the full queue",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+
+        admission.release();
+        assertTrue("The waiting request did not get the released permit", waiting.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception {
+        RequestAdmission admission = new RequestAdmission(1, 200);
+        assertTrue(admission.tryAcquire());
+
+        long start = System.nanoTime();
+        assertFalse(admission.tryAcquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(0, admission.getQueued());
+
+        admission.release();
+        assertTrue(admission.tryAcquire());
+    }
+
+    @Test
+    public void testServiceUnavailable() throws Exception {
+        RequestAdmission admission = Jenkins.lookup(Injector.class).getInstance(RequestAdmission.class);
+        assertTrue(admission.tryAcquire());
+        List<Future<Boolean>> waiting = new ArrayList<Future<Boolean>>();
+        try {
+            for (int i = 0; i < RequestAdmission.MAX_QUEUED; i++) {
+                waiting.add(executor.submit(tryAcquire(admission)));
+            }
+            awaitQueued(admission, RequestAdmission.MAX_QUEUED);
+
+            try {
+                j.createWebClient().goTo("view/" + j.jenkins.getPrimaryView().getViewName() + "/depgraph-view/graph.json");
+                fail("The request was admitted");
+            } catch (FailingHttpStatusCodeException e) {
+                assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+                assertEquals(Integer.toString(RequestAdmission.RETRY_AFTER_SECONDS),
+                        e.getResponse().getResponseHeaderValue("Retry-After"));
+            }
+        } finally {
+            admission.release();
+        }
+        for (Future<Boolean> request : waiting) {
+            assertTrue(request.get(1, TimeUnit.MINUTES));
+        }
+    }
+
+    /**
+     * Acquires a permit and releases it at once
+     */
+    private static Callable<Boolean> tryAcquire(final RequestAdmission admission) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                if (!admission.tryAcquire()) {
+                    return false;
+                }
+                admission.release();
+                return true;
+            }
+        };
+    }
+
+    private static void awaitQueued(RequestAdmission admission, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (admission.getQueued() < queued) {
+            assertTrue("The requests did not queue up", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
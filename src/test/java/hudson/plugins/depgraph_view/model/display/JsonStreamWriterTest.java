@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.display;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonStreamWriterTest {
+
+    @Test
+    public void testCompactOutputMatchesJsonLib() throws IOException {
+        assertEquals(jsonLibGraph().toString(), writeGraph(false));
+    }
+
+    @Test
+    public void testPrettyOutputParsesToSameJson() throws IOException {
+        assertEquals(jsonLibGraph().toString(), JSONObject.fromObject(writeGraph(true)).toString());
+    }
+
+    @Test
+    public void testPrettyOutputIsIndented() throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonStreamWriter json = new JsonStreamWriter(writer, true);
+        json.beginObject()
+                .name("edges").beginArray()
+                .beginObject().name("from").value("a").name("to").value("b").endObject()
+                .endArray()
+                .name("hSize").value(1.5)
+                .name("clusters").beginArray().endArray()
+                .endObject();
+        json.flush();
+
+        assertEquals("{\n"
+                + "  \"edges\": [\n"
+                + "    {\n"
+                + "      \"from\": \"a\",\n"
+                + "      \"to\": \"b\"\n"
+                + "    }\n"
+                + "  ],\n"
+                + "  \"hSize\": 1.5,\n"
+                + "  \"clusters\": []\n"
+                + "}", writer.toString());
+    }
+
+    @Test
+    public void testStringsAreEscaped() throws IOException {
+        assertEquals("\"say \\\"hi\\\"\"", writeValue("say \"hi\""));
+        assertEquals("\"C:\\\\jobs\"", writeValue("C:\\jobs"));
+        assertEquals("\"a\\nb\\tc\\rd\"", writeValue("a\nb\tc\rd"));
+        assertEquals("\"\\u0001\\u001f\"", writeValue("\u0001\u001f"));
+        assertEquals("\"J\u00f6rg \u65e5\u672c\"", writeValue("J\u00f6rg \u65e5\u672c"));
+        assertEquals("\"\"", writeValue(""));
+    }
+
+    @Test
+    public void testNumbersAreFormattedLikeJsonLib() throws IOException {
+        assertEquals("10", writeValue(10.0));
+        assertEquals("0.5", writeValue(0.5));
+        assertEquals("-150", writeValue(-150.0));
+    }
+
+    /**
+     * Writes the document of {@link #jsonLibGraph()} in the way JsonStringGenerator does
+     */
+    private static String writeGraph(boolean prettyPrint) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonStreamWriter json = new JsonStreamWriter(writer, prettyPrint);
+        json.beginObject();
+        json.name("edges").beginArray();
+        json.beginObject().name("from").value("Folder \u00bb job \"1\"").name("to").value("job2").name("type").value("dep").endObject();
+        json.beginObject().name("from").value("job2").name("to").value("job3").name("type").value("copy").endObject();
+        json.endArray();
+        json.name("clusters").beginArray();
+        json.beginObject().name("nodes").beginArray();
+        node(json, "job2", 0, 100);
+        node(json, "job3", 150.5, 0);
+        json.endArray();
+        json.name("hSize").value(150.5).name("vSize").value(100.0).endObject();
+        json.beginObject().name("nodes").beginArray().endArray()
+                .name("hSize").value(700.0).name("vSize").value(90.0).endObject();
+        json.endArray();
+        json.endObject();
+        json.flush();
+        return writer.toString();
+    }
+
+    private static void node(JsonStreamWriter json, String name, double x, double y) throws IOException {
+        json.beginObject()
+                .name("name").value(name)
+                .name("fullName").value(name)
+                .name("url").value("http://localhost:8080/job/" + name + "/")
+                .name("x").value(x)
+                .name("y").value(y)
+                .endObject();
+    }
+
+    /**
+     * @return the document built with json-lib, as the generator did before it streamed the json
+     */
+    private static JSONObject jsonLibGraph() {
+        JSONArray edges = new JSONArray();
+        edges.add(edge("Folder \u00bb job \"1\"", "job2", "dep"));
+        edges.add(edge("job2", "job3", "copy"));
+        JSONArray nodes = new JSONArray();
+        nodes.add(node("job2", 0, 100));
+        nodes.add(node("job3", 150.5, 0));
+        JSONArray clusters = new JSONArray();
+        clusters.add(cluster(nodes, 150.5, 100.0));
+        clusters.add(cluster(new JSONArray(), 700.0, 90.0));
+        JSONObject json = new JSONObject();
+        json.put("edges", edges);
+        json.put("clusters", clusters);
+        return json;
+    }
+
+    private static JSONObject edge(String from, String to, String type) {
+        JSONObject edge = new JSONObject();
+        edge.put("from", from);
+        edge.put("to", to);
+        edge.put("type", type);
+        return edge;
+    }
+
+    private static JSONObject node(String name, double x, double y) {
+        JSONObject node = new JSONObject();
+        node.put("name", name);
+        node.put("fullName", name);
+        node.put("url", "http://localhost:8080/job/" + name + "/");
+        node.put("x", x);
+        node.put("y", y);
+        return node;
+    }
+
+    private static JSONObject cluster(JSONArray nodes, double hSize, double vSize) {
+        JSONObject cluster = new JSONObject();
+        cluster.put("nodes", nodes);
+        cluster.put("hSize", hSize);
+        cluster.put("vSize", vSize);
+        return cluster;
+    }
+
+    private static String writeValue(String value) throws IOException {
+        StringWriter writer = new StringWriter();
+        new JsonStreamWriter(writer, false).value(value).flush();
+        return writer.toString();
+    }
+
+    private static String writeValue(double value) throws IOException {
+        StringWriter writer = new StringWriter();
+        new JsonStreamWriter(writer, false).value(value).flush();
+        return writer.toString();
+    }
+}
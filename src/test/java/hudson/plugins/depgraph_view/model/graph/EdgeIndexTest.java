@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.model.AbstractProject;
+import hudson.model.FreeStyleProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EdgeIndexTest {
+    private static final String UPSTREAM_SUFFIX = "-upstream";
+
+    private final List<String> indexedProjects = Collections.synchronizedList(new ArrayList<String>());
+
+    // when set, indexing the project named blocker waits for it
+    private volatile CountDownLatch gate;
+    private final CountDownLatch blocked = new CountDownLatch(1);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testUpstreamCreatedLater() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        EdgeIndex edgeIndex = newEdgeIndex();
+        assertEquals(0, edgeIndex.getEdgesIncidentWith(project).size());
+
+        FreeStyleProject upstream = j.createFreeStyleProject("job" + UPSTREAM_SUFFIX);
+        // like the ItemListener on the creation of a job
+        edgeIndex.invalidate();
+        assertNull(edgeIndex.getEdgesIncidentWith(project));
+
+        edgeIndex.awaitIndexer();
+        List<Edge> edges = edgeIndex.getEdgesIncidentWith(project);
+        assertEquals(1, edges.size());
+        assertEquals(node(upstream), edges.get(0).source);
+        assertEquals(node(project), edges.get(0).target);
+    }
+
+    @Test
+    public void testUpstreamCreatedLaterUpdatesReferringProjects() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        FreeStyleProject other = j.createFreeStyleProject("other");
+        EdgeIndex edgeIndex = newEdgeIndex(new ReferencingUpstreamByNameEdgeProvider());
+        List<Edge> otherEdges = edgeIndex.getEdgesIncidentWith(other);
+        assertEquals(0, edgeIndex.getEdgesIncidentWith(project).size());
+
+        indexedProjects.clear();
+        FreeStyleProject upstream = j.createFreeStyleProject("job" + UPSTREAM_SUFFIX);
+        // like the ItemListener on the creation of a job
+        edgeIndex.scheduleCreation(upstream);
+        edgeIndex.awaitIndexer();
+
+        List<Edge> edges = edgeIndex.getEdgesIncidentWith(project);
+        assertEquals(1, edges.size());
+        assertEquals(node(upstream), edges.get(0).source);
+        // only the new job and the job referring to its name were indexed again
+        assertEquals(ImmutableSet.of("job", "job" + UPSTREAM_SUFFIX), ImmutableSet.copyOf(indexedProjects));
+        assertSame(otherEdges, edgeIndex.getEdgesIncidentWith(other));
+    }
+
+    @Test
+    public void testCreationWithoutKnownReferencesDropsIndex() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        EdgeIndex edgeIndex = newEdgeIndex();
+
+        FreeStyleProject upstream = j.createFreeStyleProject("job" + UPSTREAM_SUFFIX);
+        edgeIndex.scheduleCreation(upstream);
+        assertNull(edgeIndex.getEdgesIncidentWith(project));
+
+        edgeIndex.awaitIndexer();
+        assertEquals(1, edgeIndex.getEdgesIncidentWith(project).size());
+    }
+
+    @Test
+    public void testUpdateKeepsOtherProjects() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        FreeStyleProject other = j.createFreeStyleProject("other");
+        EdgeIndex edgeIndex = newEdgeIndex(new ReferencingUpstreamByNameEdgeProvider());
+        List<Edge> otherEdges = edgeIndex.getEdgesIncidentWith(other);
+
+        indexedProjects.clear();
+        // like the SaveableListener on a save of the job
+        edgeIndex.scheduleUpdate(project);
+        edgeIndex.awaitIndexer();
+
+        assertEquals(Collections.singletonList("job"), indexedProjects);
+        assertNotNull(edgeIndex.getEdgesIncidentWith(project));
+        assertSame(otherEdges, edgeIndex.getEdgesIncidentWith(other));
+    }
+
+    @Test
+    public void testUpstreamRenamed() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        FreeStyleProject upstream = j.createFreeStyleProject("job" + UPSTREAM_SUFFIX);
+        EdgeIndex edgeIndex = newEdgeIndex();
+        assertEquals(1, edgeIndex.getEdgesIncidentWith(project).size());
+
+        upstream.renameTo("renamed");
+        edgeIndex.invalidate();
+        assertNull(edgeIndex.getEdgesIncidentWith(project));
+
+        edgeIndex.awaitIndexer();
+        assertEquals(0, edgeIndex.getEdgesIncidentWith(project).size());
+    }
+
+    @Test
+    public void testUpstreamDeleted() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        FreeStyleProject upstream = j.createFreeStyleProject("job" + UPSTREAM_SUFFIX);
+        EdgeIndex edgeIndex = newEdgeIndex();
+        assertEquals(1, edgeIndex.getEdgesIncidentWith(project).size());
+
+        upstream.delete();
+        edgeIndex.invalidate();
+        edgeIndex.awaitIndexer();
+
+        assertEquals(0, edgeIndex.getEdgesIncidentWith(project).size());
+        assertNull(edgeIndex.getEdgesIncidentWith(upstream));
+    }
+
+    @Test
+    public void testRepeatedUpdatesAreMerged() throws Exception {
+        FreeStyleProject blocker = j.createFreeStyleProject("blocker");
+        FreeStyleProject project = j.createFreeStyleProject("job");
+        EdgeIndex edgeIndex = newEdgeIndex();
+
+        gate = new CountDownLatch(1);
+        edgeIndex.scheduleUpdate(blocker);
+        blocked.await();
+        indexedProjects.clear();
+        for (int i = 0; i < 100; i++) {
+            // like the SaveableListener on every save of the job
+            edgeIndex.scheduleUpdate(project);
+        }
+        assertNull(edgeIndex.getEdgesIncidentWith(project));
+        gate.countDown();
+        edgeIndex.awaitIndexer();
+
+        assertEquals(1, Collections.frequency(indexedProjects, "job"));
+        assertNotNull(edgeIndex.getEdgesIncidentWith(project));
+    }
+
+    /**
+     * @return an index of the edges of the {@link UpstreamByNameEdgeProvider}, which is already built
+     */
+    private EdgeIndex newEdgeIndex() throws Exception {
+        return newEdgeIndex(new UpstreamByNameEdgeProvider());
+    }
+
+    /**
+     * @return an index of the edges of the given provider, which is already built
+     */
+    private EdgeIndex newEdgeIndex(final EdgeProvider edgeProvider) throws Exception {
+        EdgeIndex edgeIndex = new EdgeIndex(new Provider<Set<EdgeProvider>>() {
+            @Override
+            public Set<EdgeProvider> get() {
+                return ImmutableSet.of(edgeProvider);
+            }
+        });
+        edgeIndex.scheduleRebuild();
+        edgeIndex.awaitIndexer();
+        return edgeIndex;
+    }
+
+    /**
+     * Yields an edge from the project named like the given one with a suffix, if it exists.
+     * Like the {@link CopyArtifactEdgeProvider} it looks up the upstream project by name and
+     * only yields the edge for the downstream project.
+     */
+    private class UpstreamByNameEdgeProvider implements EdgeProvider {
+        @Override
+        public Iterable<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
+            indexedProjects.add(project.getName());
+            if (gate != null && project.getName().equals("blocker")) {
+                blocked.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            AbstractProject<?, ?> upstream = j.jenkins.getItem(project.getName() + UPSTREAM_SUFFIX,
+                    project.getParent(), AbstractProject.class);
+            if (upstream == null) {
+                return Collections.emptyList();
+            }
+            return Collections.<Edge>singletonList(new CopyArtifactEdge(node(upstream), node(project)));
+        }
+    }
+
+    /**
+     * Tells the name of the upstream project, whether it exists or not
+     */
+    private class ReferencingUpstreamByNameEdgeProvider extends UpstreamByNameEdgeProvider
+            implements ProjectNameReferences {
+        @Override
+        public Iterable<String> getReferencedProjectNames(AbstractProject<?, ?> project) {
+            return Collections.singletonList(project.getName() + UPSTREAM_SUFFIX);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.graph;
+
+import com.google.inject.Injector;
+import hudson.model.FreeStyleProject;
+import hudson.tasks.BuildTrigger;
+import jenkins.model.Jenkins;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.List;
+
+import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GraphCacheTest {
+    private FreeStyleProject project1;
+    private FreeStyleProject project2;
+    private GraphCache graphCache;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() throws Exception {
+        project1 = j.createFreeStyleProject();
+        project2 = j.createFreeStyleProject();
+        project1.getPublishersList().add(new BuildTrigger(project2.getName(), false));
+        j.jenkins.rebuildDependencyGraph();
+        graphCache = Jenkins.lookup(Injector.class).getInstance(GraphCache.class);
+    }
+
+    @Test
+    public void testSnapshotIsShared() {
+        GraphSnapshot snapshot = getSnapshot(project1);
+
+        assertSame(snapshot, getSnapshot(project1));
+        assertNotSame(snapshot, getSnapshot(project2));
+        assertEquals(1, snapshot.getGraph().findEdgeSet(node(project1), node(project2)).size());
+    }
+
+    @Test
+    public void testInvalidatedByItemListener() {
+        GraphSnapshot snapshot = getSnapshot(project1);
+        long generation = graphCache.getGeneration();
+
+        new GraphCache.ItemListenerImpl().onUpdated(project2);
+
+        assertTrue(graphCache.getGeneration() > generation);
+        assertNotSame(snapshot, getSnapshot(project1));
+    }
+
+    @Test
+    public void testInvalidatedByRenameAndDelete() throws Exception {
+        GraphSnapshot snapshot = getSnapshot(project1);
+
+        project2.renameTo("renamed");
+        GraphSnapshot renamed = getSnapshot(project1);
+        assertNotSame(snapshot, renamed);
+
+        project2.delete();
+        GraphSnapshot deleted = getSnapshot(project1);
+        assertNotSame(renamed, deleted);
+        assertEquals(1, deleted.getGraph().getNodes().size());
+    }
+
+    @Test
+    public void testInvalidatedByNewJenkinsDependencyGraph() {
+        GraphSnapshot snapshot = getSnapshot(project1);
+        long generation = graphCache.getGeneration();
+
+        // a new dependency graph without any job event, e.g. after a reload of the configuration
+        j.jenkins.rebuildDependencyGraph();
+
+        assertTrue(graphCache.getGeneration() > generation);
+        assertNotSame(snapshot, getSnapshot(project1));
+    }
+
+    private GraphSnapshot getSnapshot(FreeStyleProject project) {
+        List<FreeStyleProject> projects = Collections.singletonList(project);
+        return graphCache.getSnapshot(projects);
+    }
+}
@@ -24,19 +24,39 @@ package hudson.plugins.depgraph_view.model.graph;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import hudson.model.AbstractProject;
 import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.security.AuthorizationMatrixProperty;
+import hudson.security.Permission;
+import hudson.security.ProjectMatrixAuthorizationStrategy;
+import hudson.security.SecurityRealm;
 import hudson.tasks.BuildTrigger;
+import jenkins.model.Jenkins;
+import org.acegisecurity.GrantedAuthority;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import javax.inject.Provider;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class GraphCalculatorTest {
@@ -92,6 +112,246 @@ public class GraphCalculatorTest {
         assertHasOneDependencyEdge(graph, project2, project3);
     }
 
+    @Test
+    public void testCalculateDepsWideFrontier() throws IOException {
+        createProjects();
+        List<FreeStyleProject> downstreamProjects = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            FreeStyleProject downstream = j.createFreeStyleProject();
+            addDependency(downstream, project1);
+            downstreamProjects.add(downstream);
+        }
+        project2.getPublishersList().add(new BuildTrigger(downstreamProjects, null));
+        j.getInstance().rebuildDependencyGraph();
+        DependencyGraph graph = generateGraph(project2);
+        assertEquals(102, graph.getNodes().size());
+        assertEquals(200, graph.getEdges().size());
+        for (FreeStyleProject downstream : downstreamProjects) {
+            assertHasOneDependencyEdge(graph, project2, downstream);
+            assertHasOneDependencyEdge(graph, downstream, project1);
+        }
+    }
+
+    @Test
+    public void testCalculateDepsLongChain() throws Exception {
+        final int length = 10000;
+        final List<FreeStyleProject> chain = Lists.newArrayListWithCapacity(length);
+        final Map<AbstractProject<?,?>, Integer> positions = Maps.newHashMap();
+        for (int i = 0; i < length; i++) {
+            FreeStyleProject project = new FreeStyleProject(j.getInstance(), "chain" + i);
+            chain.add(project);
+            positions.put(project, i);
+        }
+        EdgeProvider chainEdgeProvider = new EdgeProvider() {
+            @Override
+            public Iterable<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
+                int position = positions.get(project);
+                List<Edge> edges = Lists.newArrayList();
+                if (position > 0) {
+                    edges.add(new CopyArtifactEdge(node(chain.get(position - 1)), node(project)));
+                }
+                if (position < length - 1) {
+                    edges.add(new CopyArtifactEdge(node(project), node(chain.get(position + 1))));
+                }
+                return edges;
+            }
+        };
+        final GraphCalculator graphCalculator = new GraphCalculator(ImmutableSet.of(chainEdgeProvider));
+        final DependencyGraph[] graph = new DependencyGraph[1];
+        final long[] allocatedBytes = new long[1];
+        final Throwable[] failure = new Throwable[1];
+        // a recursion per level of the breadth first search would overflow this small stack
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long before = getAllocatedBytes();
+                    graph[0] = graphCalculator.generateGraph(Collections.singleton(node(chain.get(0))));
+                    allocatedBytes[0] = before < 0 ? -1 : getAllocatedBytes() - before;
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "depgraph chain", 256 * 1024);
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        assertEquals(length, graph[0].getNodes().size());
+        assertEquals(length - 1, graph[0].getEdges().size());
+        if (allocatedBytes[0] >= 0) {
+            long bytesPerNode = allocatedBytes[0] / length;
+            assertTrue("Allocated " + bytesPerNode + " bytes per node", bytesPerNode < 16 * 1024);
+        }
+    }
+
+    @Test
+    public void testUnreadableTargetIsHidden() throws Exception {
+        createProjects();
+        allowReading("alice", project1);
+        final ImmutableSet<EdgeProvider> edgeProviders = ImmutableSet.of(copyArtifactEdgeProvider());
+        EdgeIndex edgeIndex = new EdgeIndex(new Provider<Set<EdgeProvider>>() {
+            @Override
+            public Set<EdgeProvider> get() {
+                return edgeProviders;
+            }
+        });
+        GraphCalculator graphCalculator = new GraphCalculator(edgeProviders, edgeIndex);
+
+        // the index is cold, so the providers are asked
+        assertReadableGraph(graphCalculator);
+
+        edgeIndex.scheduleRebuild();
+        edgeIndex.awaitIndexer();
+        assertNotNull(edgeIndex.getEdgesIncidentWith(project1));
+        assertReadableGraph(graphCalculator);
+    }
+
+    @Test
+    public void testDependenciesAreNotIndexed() throws Exception {
+        createProjects();
+        EdgeIndex edgeIndex = new EdgeIndex(new Provider<Set<EdgeProvider>>() {
+            @Override
+            public Set<EdgeProvider> get() {
+                return getDependencyGraphEdgeProviders();
+            }
+        });
+        edgeIndex.scheduleRebuild();
+        edgeIndex.awaitIndexer();
+
+        addDependency(project1, project2);
+        j.jenkins.rebuildDependencyGraph();
+        // the index outlives the dependency graph of Jenkins, whose edges are looked up in the new graph
+        assertEquals(0, edgeIndex.getEdgesIncidentWith(project1).size());
+        DependencyGraph graph = new GraphCalculator(getDependencyGraphEdgeProviders(), edgeIndex)
+                .generateGraph(Collections.singleton(node(project1)));
+        assertHasOneDependencyEdge(graph, project1, project2);
+    }
+
+    /**
+     * Asserts that alice sees project1 without its edge to project2, which SYSTEM sees
+     */
+    private void assertReadableGraph(GraphCalculator graphCalculator) {
+        SecurityContext previous = ACL.impersonate(new UsernamePasswordAuthenticationToken("alice", "",
+                new GrantedAuthority[] {SecurityRealm.AUTHENTICATED_AUTHORITY}));
+        DependencyGraph graph;
+        try {
+            graph = graphCalculator.generateGraph(Collections.singleton(node(project1)));
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+        assertEquals(1, graph.getNodes().size());
+        assertEquals(0, graph.getEdges().size());
+
+        previous = ACL.impersonate(ACL.SYSTEM);
+        try {
+            graph = graphCalculator.generateGraph(Collections.singleton(node(project1)));
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+        assertHasOneDependencyEdge(graph, project1, project2);
+    }
+
+    /**
+     * @return a provider of an edge from project1 to project2, which like the {@link CopyArtifactEdgeProvider}
+     *         yields it whether the current user may read project2 or not
+     */
+    private EdgeProvider copyArtifactEdgeProvider() {
+        return new EdgeProvider() {
+            @Override
+            public Iterable<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
+                if (project != project1 && project != project2) {
+                    return Collections.emptyList();
+                }
+                return Collections.<Edge>singletonList(new CopyArtifactEdge(node(project1), node(project2)));
+            }
+        };
+    }
+
+    /**
+     * Lets the given user read Jenkins and only the given project
+     */
+    private void allowReading(String user, AbstractProject<?, ?> project) throws IOException {
+        ProjectMatrixAuthorizationStrategy authorizationStrategy = new ProjectMatrixAuthorizationStrategy();
+        authorizationStrategy.add(Jenkins.READ, user);
+        j.jenkins.setAuthorizationStrategy(authorizationStrategy);
+        Map<Permission, Set<String>> grants = Maps.newHashMap();
+        grants.put(Item.READ, Collections.singleton(user));
+        project.addProperty(new AuthorizationMatrixProperty(grants));
+    }
+
+    @Test
+    public void testHeapOfLargeGraph() throws Exception {
+        final int size = 1000;
+        final int fanOut = 100;
+        final List<FreeStyleProject> projects = Lists.newArrayListWithCapacity(size);
+        final Map<AbstractProject<?,?>, Integer> positions = Maps.newHashMap();
+        for (int i = 0; i < size; i++) {
+            FreeStyleProject project = new FreeStyleProject(j.getInstance(), "project" + i);
+            projects.add(project);
+            positions.put(project, i);
+        }
+        // every project copies from the next projects on a ring
+        EdgeProvider ringEdgeProvider = new EdgeProvider() {
+            @Override
+            public Iterable<Edge> getEdgesIncidentWith(AbstractProject<?, ?> project) {
+                int position = positions.get(project);
+                List<Edge> edges = Lists.newArrayListWithCapacity(2 * fanOut);
+                for (int k = 1; k <= fanOut; k++) {
+                    edges.add(new CopyArtifactEdge(node(projects.get((position + k) % size)), node(project)));
+                    edges.add(new CopyArtifactEdge(node(project), node(projects.get((position - k + size) % size))));
+                }
+                return edges;
+            }
+        };
+
+        // the edges alone, as the providers yield them, which the graph used to keep
+        long before = getUsedHeap();
+        List<Edge> edges = Lists.newArrayList();
+        for (FreeStyleProject project : projects) {
+            for (Edge edge : ringEdgeProvider.getEdgesIncidentWith(project)) {
+                if (edge.target.getProject() == project) {
+                    edges.add(edge);
+                }
+            }
+        }
+        long edgeBytes = getUsedHeap() - before;
+        assertEquals(size * fanOut, edges.size());
+        edges = null;
+
+        before = getUsedHeap();
+        DependencyGraph graph = new GraphCalculator(ImmutableSet.of(ringEdgeProvider))
+                .generateGraph(Collections.singleton(node(projects.get(0))));
+        assertEquals(size, graph.getNodes().size());
+        long graphBytes = getUsedHeap() - before;
+        assertEquals(size * fanOut, graph.getEdges().size());
+        assertTrue("The graph takes " + graphBytes + " bytes, its edges " + edgeBytes,
+                graphBytes * 10 < edgeBytes);
+    }
+
+    /**
+     * @return the bytes used on the heap after a full collection
+     */
+    private static long getUsedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
     private void createProjects() throws IOException {
         project1 = j.createFreeStyleProject();
         project2 = j.createFreeStyleProject();
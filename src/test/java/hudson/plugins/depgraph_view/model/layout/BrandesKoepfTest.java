@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BrandesKoepfTest {
+
+    private static final double SPACING = 200;
+
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    public void testCoordinatesAreFinite() {
+        Random random = new Random(42);
+        for (int graph = 0; graph < 100; graph++) {
+            Layering layering = new Layering(random);
+            double[] xs = layering.assignCoordinates();
+
+            assertEquals(layering.nodeLevels.length, xs.length);
+            for (int node = 0; node < xs.length; node++) {
+                assertFalse("Node " + node + " of graph " + graph + " is at " + xs[node],
+                        Double.isNaN(xs[node]) || Double.isInfinite(xs[node]));
+            }
+        }
+    }
+
+    @Test
+    public void testLevelsKeepOrderAndSpacing() {
+        Random random = new Random(42);
+        for (int graph = 0; graph < 100; graph++) {
+            Layering layering = new Layering(random);
+            double[] xs = layering.assignCoordinates();
+
+            for (int[] level : layering.levels) {
+                for (int position = 1; position < level.length; position++) {
+                    double distance = xs[level[position]] - xs[level[position - 1]];
+                    assertTrue("Nodes " + level[position - 1] + " and " + level[position] + " of graph " + graph
+                            + " are " + distance + " apart", distance >= SPACING - EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInnerSegmentsAreVertical() {
+        Random random = new Random(42);
+        int innerSegments = 0;
+        for (int graph = 0; graph < 100; graph++) {
+            Layering layering = new Layering(random);
+            double[] xs = layering.assignCoordinates();
+
+            for (int node = 0; node < layering.nodeLevels.length; node++) {
+                for (int i = layering.downOffsets[node]; i < layering.downOffsets[node + 1]; i++) {
+                    int lower = layering.downNeighbors[i];
+                    if (node >= layering.firstDummy && lower >= layering.firstDummy) {
+                        innerSegments++;
+                        assertEquals("Inner segment " + node + " -> " + lower + " of graph " + graph,
+                                xs[node], xs[lower], EPSILON);
+                    }
+                }
+            }
+        }
+        assertTrue("The layerings have no inner segments", innerSegments > 0);
+    }
+
+    @Test
+    public void testSingleNode() {
+        BrandesKoepf brandesKoepf = new BrandesKoepf(new int[][] {{0}}, new int[] {0}, new int[] {0},
+                new int[] {0, 0}, new int[0], new int[] {0, 0}, new int[0], 1, SPACING);
+        double[] xs = brandesKoepf.assignCoordinates();
+
+        assertEquals(1, xs.length);
+        assertFalse(Double.isNaN(xs[0]) || Double.isInfinite(xs[0]));
+    }
+
+    /**
+     * A random proper layering like the one of {@link LayeredLayout}: the vertices come first, followed by
+     * the dummy nodes of the edges spanning several levels. The dummy nodes of the long edges keep their
+     * order on every level, so that the inner segments between them do not cross.
+     */
+    private static final class Layering {
+        final int[][] levels;
+        final int[] positions;
+        final int[] nodeLevels;
+        final int[] upOffsets;
+        final int[] upNeighbors;
+        final int[] downOffsets;
+        final int[] downNeighbors;
+        final int firstDummy;
+
+        Layering(Random random) {
+            int levelCount = 3 + random.nextInt(5);
+            List<List<Integer>> vertices = new ArrayList<List<Integer>>();
+            List<Integer> levelOfNode = new ArrayList<Integer>();
+            for (int level = 0; level < levelCount; level++) {
+                List<Integer> levelVertices = new ArrayList<Integer>();
+                int width = 1 + random.nextInt(8);
+                for (int i = 0; i < width; i++) {
+                    levelVertices.add(levelOfNode.size());
+                    levelOfNode.add(level);
+                }
+                vertices.add(levelVertices);
+            }
+            firstDummy = levelOfNode.size();
+
+            List<int[]> segments = new ArrayList<int[]>();
+            for (int level = 0; level < levelCount - 1; level++) {
+                for (int upper : vertices.get(level)) {
+                    int edges = random.nextInt(3);
+                    for (int i = 0; i < edges; i++) {
+                        List<Integer> lowerLevel = vertices.get(level + 1);
+                        segments.add(new int[] {upper, lowerLevel.get(random.nextInt(lowerLevel.size()))});
+                    }
+                }
+            }
+            // the dummy nodes of every level in the order of their long edges
+            List<List<Integer>> dummies = new ArrayList<List<Integer>>();
+            for (int level = 0; level < levelCount; level++) {
+                dummies.add(new ArrayList<Integer>());
+            }
+            int longEdges = 1 + random.nextInt(6);
+            for (int edge = 0; edge < longEdges; edge++) {
+                int sourceLevel = random.nextInt(levelCount - 2);
+                int targetLevel = sourceLevel + 2 + random.nextInt(levelCount - sourceLevel - 2);
+                List<Integer> sourceVertices = vertices.get(sourceLevel);
+                List<Integer> targetVertices = vertices.get(targetLevel);
+                int previous = sourceVertices.get(random.nextInt(sourceVertices.size()));
+                for (int level = sourceLevel + 1; level < targetLevel; level++) {
+                    int dummy = levelOfNode.size();
+                    levelOfNode.add(level);
+                    dummies.get(level).add(dummy);
+                    segments.add(new int[] {previous, dummy});
+                    previous = dummy;
+                }
+                segments.add(new int[] {previous, targetVertices.get(random.nextInt(targetVertices.size()))});
+            }
+
+            int nodeCount = levelOfNode.size();
+            nodeLevels = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                nodeLevels[node] = levelOfNode.get(node);
+            }
+            // shuffles the vertices of every level in between the ordered dummy nodes
+            levels = new int[levelCount][];
+            positions = new int[nodeCount];
+            for (int level = 0; level < levelCount; level++) {
+                List<Integer> levelVertices = new ArrayList<Integer>(vertices.get(level));
+                Collections.shuffle(levelVertices, random);
+                List<Integer> levelDummies = dummies.get(level);
+                levels[level] = new int[levelVertices.size() + levelDummies.size()];
+                int vertex = 0;
+                int dummy = 0;
+                for (int position = 0; position < levels[level].length; position++) {
+                    boolean takeDummy = vertex == levelVertices.size()
+                            || (dummy < levelDummies.size() && random.nextBoolean());
+                    int node = takeDummy ? levelDummies.get(dummy++) : levelVertices.get(vertex++);
+                    levels[level][position] = node;
+                    positions[node] = position;
+                }
+            }
+
+            upOffsets = new int[nodeCount + 1];
+            downOffsets = new int[nodeCount + 1];
+            for (int[] segment : segments) {
+                downOffsets[segment[0] + 1]++;
+                upOffsets[segment[1] + 1]++;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                downOffsets[node + 1] += downOffsets[node];
+                upOffsets[node + 1] += upOffsets[node];
+            }
+            upNeighbors = new int[segments.size()];
+            downNeighbors = new int[segments.size()];
+            int[] upFill = upOffsets.clone();
+            int[] downFill = downOffsets.clone();
+            for (int[] segment : segments) {
+                downNeighbors[downFill[segment[0]]++] = segment[1];
+                upNeighbors[upFill[segment[1]]++] = segment[0];
+            }
+        }
+
+        double[] assignCoordinates() {
+            return new BrandesKoepf(levels, positions, nodeLevels, upOffsets, upNeighbors,
+                    downOffsets, downNeighbors, firstDummy, SPACING).assignCoordinates();
+        }
+    }
+}
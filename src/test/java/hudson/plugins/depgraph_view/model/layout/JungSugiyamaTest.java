@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2012 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JungSugiyamaTest {
+
+    @Test
+    public void testCoordinatesOfSmallDag() {
+        // the coordinates the layout computed on its lists of levels, before they were backed by arrays
+        int[][] edges = {{0, 2}, {0, 3}, {1, 3}, {1, 4}, {2, 5}, {3, 5}, {3, 6}, {4, 6}, {0, 6}, {1, 7}, {7, 6}};
+        double[][] expected = {{210, 10}, {10, 10}, {610, 110}, {410, 110}, {210, 110}, {210, 210}, {10, 210}, {10, 110}};
+        assertCoordinates(expected, edges);
+    }
+
+    @Test
+    public void testCoordinatesOfCyclicGraph() {
+        // 0 -> 1 -> 2 -> 0 and 1 -> 4 -> 1 are cycles, 5 has a self loop
+        int[][] edges = {{0, 1}, {1, 2}, {2, 0}, {2, 3}, {3, 4}, {1, 4}, {4, 1}, {5, 5}, {3, 5}, {6, 2}, {6, 0}};
+        double[][] expected = {{10, 110}, {10, 210}, {10, 310}, {10, 410}, {210, 510}, {10, 510}, {10, 10}};
+        assertCoordinates(expected, edges);
+    }
+
+    @Test
+    public void testDeepChainOnSmallStack() throws InterruptedException {
+        final int length = 100000;
+        final DirectedSparseMultigraph<Integer, Integer> graph = new DirectedSparseMultigraph<Integer, Integer>();
+        for (int i = 0; i < length - 1; i++) {
+            graph.addEdge(i, i, i + 1);
+        }
+        // closes the chain to a cycle
+        graph.addEdge(length - 1, length - 1, 0);
+        final List<Point2D> points = new ArrayList<Point2D>();
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JungSugiyama<Integer, Integer> layout = new JungSugiyama<Integer, Integer>(graph);
+                    layout.setMaxIterations(1);
+                    layout.initialize();
+                    for (int i = 0; i < length; i++) {
+                        points.add(layout.transform(i));
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "depgraph layout chain", 256 * 1024);
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        for (int i = 1; i < length; i++) {
+            assertTrue("Vertex " + i + " is not below its predecessor", points.get(i).getY() > points.get(i - 1).getY());
+        }
+        // the layout works on the original graph, the reversed edge is only recorded
+        assertEquals(Integer.valueOf(length - 1), graph.getSource(length - 1));
+        assertEquals(Integer.valueOf(0), graph.getDest(length - 1));
+    }
+
+    @Test
+    public void testDenseCyclicGraph() {
+        int vertexCount = 60;
+        DirectedSparseMultigraph<Integer, Integer> graph = new DirectedSparseMultigraph<Integer, Integer>();
+        Random random = new Random(42);
+        int edge = 0;
+        for (int source = 0; source < vertexCount; source++) {
+            for (int target = 0; target < vertexCount; target++) {
+                if (source == target || random.nextInt(4) > 0) {
+                    graph.addEdge(edge++, source, target);
+                }
+            }
+        }
+        int edgeCount = graph.getEdgeCount();
+
+        JungSugiyama<Integer, Integer> layout = new JungSugiyama<Integer, Integer>(graph);
+        layout.initialize();
+
+        assertEquals(edgeCount, graph.getEdgeCount());
+        List<String> points = new ArrayList<String>();
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            Point2D point = layout.transform(vertex);
+            assertFalse("Vertices overlap at " + point, points.contains(point.toString()));
+            points.add(point.toString());
+        }
+    }
+
+    @Test
+    public void testReversedEdgesMakeGraphAcyclic() {
+        int vertexCount = 200;
+        Random random = new Random(42);
+        List<int[]> edges = new ArrayList<int[]>();
+        for (int source = 0; source < vertexCount; source++) {
+            for (int target = 0; target < vertexCount; target++) {
+                if (random.nextInt(3) == 0) {
+                    edges.add(new int[] {source, target});
+                }
+            }
+        }
+        int[] sources = new int[edges.size()];
+        int[] targets = new int[edges.size()];
+        int[] outDegrees = new int[vertexCount];
+        for (int i = 0; i < edges.size(); i++) {
+            sources[i] = edges.get(i)[0];
+            targets[i] = edges.get(i)[1];
+            outDegrees[sources[i]]++;
+        }
+        int[][] outEdges = new int[vertexCount][];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            outEdges[vertex] = new int[outDegrees[vertex]];
+            outDegrees[vertex] = 0;
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            outEdges[sources[i]][outDegrees[sources[i]]++] = i;
+        }
+
+        boolean[] reversed = CycleBreaker.findReversedEdges(outEdges, targets);
+
+        for (int i = 0; i < edges.size(); i++) {
+            if (reversed[i]) {
+                assertTrue("A self loop was reversed", sources[i] != targets[i]);
+                int source = sources[i];
+                sources[i] = targets[i];
+                targets[i] = source;
+            }
+        }
+        assertAcyclic(vertexCount, sources, targets);
+    }
+
+    private static void assertCoordinates(double[][] expected, int[][] edges) {
+        DirectedSparseMultigraph<Integer, Integer> graph = new DirectedSparseMultigraph<Integer, Integer>();
+        for (int vertex = 0; vertex < expected.length; vertex++) {
+            graph.addVertex(vertex);
+        }
+        for (int edge = 0; edge < edges.length; edge++) {
+            graph.addEdge(edge, edges[edge][0], edges[edge][1]);
+        }
+
+        JungSugiyama<Integer, Integer> layout = new JungSugiyama<Integer, Integer>(graph);
+        layout.initialize();
+
+        for (int vertex = 0; vertex < expected.length; vertex++) {
+            assertEquals(new Point2D.Double(expected[vertex][0], expected[vertex][1]), layout.transform(vertex));
+        }
+    }
+
+    private static void assertAcyclic(int vertexCount, int[] sources, int[] targets) {
+        int[] inDegrees = new int[vertexCount];
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] != targets[i]) {
+                inDegrees[targets[i]]++;
+            }
+        }
+        boolean[] removed = new boolean[vertexCount];
+        int removedCount = 0;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                if (!removed[vertex] && inDegrees[vertex] == 0) {
+                    removed[vertex] = true;
+                    removedCount++;
+                    progress = true;
+                    for (int i = 0; i < sources.length; i++) {
+                        if (sources[i] == vertex && targets[i] != vertex) {
+                            inDegrees[targets[i]]--;
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals("The graph still has a cycle", vertexCount, removedCount);
+    }
+}
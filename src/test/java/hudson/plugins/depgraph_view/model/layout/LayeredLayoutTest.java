@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LayeredLayoutTest {
+
+    @Test
+    public void testCrossingsMatchPairCount() {
+        Random random = new Random(42);
+        for (int graph = 0; graph < 50; graph++) {
+            DirectedSparseMultigraph<Integer, Integer> layering = randomLayering(random);
+            LayeredLayout<Integer, Integer> layout = new LayeredLayout<Integer, Integer>(layering);
+            layout.initialize();
+
+            assertEquals("Crossings of graph " + graph, countCrossingPairs(layering, layout), layout.getCrossings());
+        }
+    }
+
+    @Test
+    public void testInitialLayeringMatchesPairCount() {
+        Random random = new Random(7);
+        for (int graph = 0; graph < 50; graph++) {
+            DirectedSparseMultigraph<Integer, Integer> layering = randomLayering(random);
+            LayeredLayout<Integer, Integer> layout = new LayeredLayout<Integer, Integer>(layering);
+            layout.setMaxSweeps(0);
+            layout.initialize();
+
+            assertEquals("Crossings of graph " + graph, countCrossingPairs(layering, layout), layout.getCrossings());
+        }
+    }
+
+    @Test
+    public void testSweepsDoNotAddCrossings() {
+        Random random = new Random(42);
+        long initialTotal = 0;
+        long sweptTotal = 0;
+        for (int graph = 0; graph < 50; graph++) {
+            DirectedSparseMultigraph<Integer, Integer> layering = randomLayering(random);
+            long initial = crossings(layering, 0);
+            long swept = crossings(layering, 24);
+
+            assertTrue("The sweeps added crossings to graph " + graph, swept <= initial);
+            initialTotal += initial;
+            sweptTotal += swept;
+        }
+        assertTrue("The sweeps removed no crossings", sweptTotal < initialTotal);
+    }
+
+    @Test
+    public void testCyclicGraph() {
+        Random random = new Random(42);
+        int vertexCount = 40;
+        DirectedSparseMultigraph<Integer, Integer> graph = new DirectedSparseMultigraph<Integer, Integer>();
+        int edge = 0;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            graph.addVertex(vertex);
+        }
+        // a ring through all vertices, chords in both directions and a self loop
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            graph.addEdge(edge++, vertex, (vertex + 1) % vertexCount);
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            graph.addEdge(edge++, random.nextInt(vertexCount), random.nextInt(vertexCount));
+        }
+        graph.addEdge(edge++, 0, 0);
+        int edgeCount = graph.getEdgeCount();
+
+        long initial = crossings(graph, 0);
+        LayeredLayout<Integer, Integer> layout = new LayeredLayout<Integer, Integer>(graph);
+        layout.initialize();
+
+        assertTrue("The sweeps added crossings", layout.getCrossings() <= initial);
+        // the cycles are only broken for the layout
+        assertEquals(edgeCount, graph.getEdgeCount());
+        for (int e = 0; e < vertexCount; e++) {
+            assertEquals(Integer.valueOf(e), graph.getSource(e));
+        }
+        for (Integer e : graph.getEdges()) {
+            Point2D source = layout.transform(graph.getSource(e));
+            Point2D target = layout.transform(graph.getDest(e));
+            if (graph.getSource(e).equals(graph.getDest(e))) {
+                continue;
+            }
+            assertTrue("The ends of edge " + e + " share a level", source.getY() != target.getY());
+        }
+    }
+
+    private static long crossings(DirectedSparseMultigraph<Integer, Integer> graph, int maxSweeps) {
+        LayeredLayout<Integer, Integer> layout = new LayeredLayout<Integer, Integer>(graph);
+        layout.setMaxSweeps(maxSweeps);
+        layout.initialize();
+        return layout.getCrossings();
+    }
+
+    /**
+     * @return a graph whose edges only connect adjacent levels, every vertex below the first level
+     *         has a predecessor on the level above, so that the layout has no dummy nodes
+     */
+    private static DirectedSparseMultigraph<Integer, Integer> randomLayering(Random random) {
+        DirectedSparseMultigraph<Integer, Integer> graph = new DirectedSparseMultigraph<Integer, Integer>();
+        int levelCount = 2 + random.nextInt(5);
+        List<Integer> upperLevel = new ArrayList<Integer>();
+        int vertex = 0;
+        int edge = 0;
+        for (int level = 0; level < levelCount; level++) {
+            List<Integer> currentLevel = new ArrayList<Integer>();
+            int width = 1 + random.nextInt(12);
+            for (int i = 0; i < width; i++) {
+                int current = vertex++;
+                graph.addVertex(current);
+                currentLevel.add(current);
+                if (!upperLevel.isEmpty()) {
+                    int predecessors = 1 + random.nextInt(3);
+                    for (int p = 0; p < predecessors; p++) {
+                        graph.addEdge(edge++, upperLevel.get(random.nextInt(upperLevel.size())), current);
+                    }
+                }
+            }
+            upperLevel = currentLevel;
+        }
+        return graph;
+    }
+
+    /**
+     * Counts the pairs of edges between the same levels whose ends are in opposite orders.
+     */
+    private static long countCrossingPairs(DirectedSparseMultigraph<Integer, Integer> graph,
+                                           LayeredLayout<Integer, Integer> layout) {
+        List<Integer> edges = new ArrayList<Integer>(graph.getEdges());
+        long count = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            Point2D source1 = layout.transform(graph.getSource(edges.get(i)));
+            Point2D target1 = layout.transform(graph.getDest(edges.get(i)));
+            for (int j = i + 1; j < edges.size(); j++) {
+                Point2D source2 = layout.transform(graph.getSource(edges.get(j)));
+                Point2D target2 = layout.transform(graph.getDest(edges.get(j)));
+                if (source1.getY() == source2.getY()
+                        && (source1.getX() - source2.getX()) * (target1.getX() - target2.getX()) < 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010 Stefan Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.depgraph_view.model.layout;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import edu.uci.ics.jung.graph.Graph;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.depgraph_view.model.graph.CopyArtifactEdge;
+import hudson.plugins.depgraph_view.model.graph.Edge;
+import hudson.plugins.depgraph_view.model.graph.ProjectNode;
+import hudson.plugins.depgraph_view.model.layout.LayoutCache.ClusterLayout;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.awt.geom.Point2D;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static hudson.plugins.depgraph_view.model.graph.ProjectNode.node;
+import static org.junit.Assert.assertEquals;
+
+public class LayoutCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void testCompleteLayoutIsReused() throws Exception {
+        Graph<ProjectNode, Edge> cluster = cluster();
+        LayoutCache layoutCache = new LayoutCache(ticker);
+        CountingLayout layout = new CountingLayout(false);
+
+        layoutCache.getLayout(cluster, layout);
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(LayoutCache.EXHAUSTED_EXPIRY_MINUTES));
+        ImmutableMap<String, Point2D> points = layoutCache.getLayout(cluster, layout);
+
+        assertEquals(1, layout.calls.get());
+        assertEquals(new Point2D.Double(0, 0), points.get("upstream"));
+    }
+
+    @Test
+    public void testExhaustedLayoutExpiresEarly() throws Exception {
+        Graph<ProjectNode, Edge> cluster = cluster();
+        LayoutCache layoutCache = new LayoutCache(ticker);
+        CountingLayout layout = new CountingLayout(true);
+
+        layoutCache.getLayout(cluster, layout);
+        layoutCache.getLayout(cluster, layout);
+        assertEquals("The exhausted layout is not reused for a while", 1, layout.calls.get());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(LayoutCache.EXHAUSTED_EXPIRY_MINUTES));
+        layoutCache.getLayout(cluster, layout);
+        assertEquals("The exhausted layout is kept for too long", 2, layout.calls.get());
+    }
+
+    @Test
+    public void testCompleteLayoutReplacesExhaustedLayout() throws Exception {
+        Graph<ProjectNode, Edge> cluster = cluster();
+        LayoutCache layoutCache = new LayoutCache(ticker);
+
+        layoutCache.getLayout(cluster, new CountingLayout(true));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(LayoutCache.EXHAUSTED_EXPIRY_MINUTES));
+        CountingLayout complete = new CountingLayout(false);
+        layoutCache.getLayout(cluster, complete);
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(LayoutCache.EXHAUSTED_EXPIRY_MINUTES));
+        layoutCache.getLayout(cluster, complete);
+
+        assertEquals(1, complete.calls.get());
+    }
+
+    private Graph<ProjectNode, Edge> cluster() throws Exception {
+        FreeStyleProject upstream = j.createFreeStyleProject("upstream");
+        FreeStyleProject downstream = j.createFreeStyleProject("downstream");
+        Graph<ProjectNode, Edge> cluster = new DirectedSparseMultigraph<ProjectNode, Edge>();
+        cluster.addEdge(new CopyArtifactEdge(node(upstream), node(downstream)), node(upstream), node(downstream));
+        return cluster;
+    }
+
+    /**
+     * Places the upstream project above the downstream project and counts how often it did
+     */
+    private static class CountingLayout implements Callable<ClusterLayout> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final boolean budgetExhausted;
+
+        CountingLayout(boolean budgetExhausted) {
+            this.budgetExhausted = budgetExhausted;
+        }
+
+        @Override
+        public ClusterLayout call() {
+            calls.incrementAndGet();
+            ImmutableMap<String, Point2D> points = ImmutableMap.<String, Point2D>of(
+                    "upstream", new Point2D.Double(0, 0),
+                    "downstream", new Point2D.Double(0, 100));
+            return new ClusterLayout(points, budgetExhausted);
+        }
+    }
+}